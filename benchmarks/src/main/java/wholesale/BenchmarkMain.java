@@ -0,0 +1,20 @@
+package wholesale;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of benchmarks.jar: the JMH command line with the GC profiler always on, so every
+ * result comes with the bytes allocated per operation ({@code gc.alloc.rate.norm}).
+ */
+public final class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        String[] jmhArgs = Arrays.copyOf(new String[] {"-prof", "gc"}, args.length + 2);
+        System.arraycopy(args, 0, jmhArgs, 2, args.length);
+        org.openjdk.jmh.Main.main(jmhArgs);
+    }
+
+    private BenchmarkMain() {
+
+    }
+}
@@ -0,0 +1,154 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.data.UdtValue;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+
+import wholesale.Constants.Customer;
+import wholesale.Constants.TableName;
+
+/**
+ * The pieces the transactions are made of, one at a time: statement binding, order line UDTs,
+ * BigDecimal math and output formatting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dwholesale.topBalance.reconcileSeconds=0")
+public class ClientPathBenchmark {
+
+    private static final String[] PAYMENT_COLUMNS = {"C_W_ID", "C_D_ID", "C_ID", "C_NAME", "C_ADDRESS", "C_PHONE",
+        "C_SINCE", "C_CREDIT", "C_CREDIT_LIM", "C_DISCOUNT", "C_BALANCE", "W_ADDRESS", "D_ADDRESS", "C_PAYMENT_CNT"};
+
+    private TransactionOutput output;
+    private NewOrderTransaction newOrder;
+    private PreparedStatement updateStock;
+    private PreparedStatement updateCustomerPayment;
+    private Row customer;
+    private RowFormatter paymentFormatter;
+    private BigDecimal[] prices;
+    private BigDecimal balance;
+    private BigDecimal payment;
+
+    @Setup
+    public void setUp() {
+        // Formats the output and hashes it, without writing it anywhere.
+        output = new DigestOutput(0);
+        StubSession session = new StubSession();
+        newOrder = new NewOrderTransaction(session, output);
+        // Same statements as NewOrderTransaction and PaymentTransactionHandler.
+        updateStock = session.prepare(" UPDATE stock SET S_QUANTITY = ?, S_YTD = ?, S_ORDER_CNT = ?, S_REMOTE_CNT = ?"
+            + " WHERE S_W_ID = ? AND S_I_ID = ?; ");
+        updateCustomerPayment = session.prepare(QueryBuilder.update(TableName.CUSTOMER_ORDER_STATS)
+            .setColumn(Customer.BALANCE, QueryBuilder.bindMarker("balance"))
+            .setColumn(Customer.YTD_PAYMENT, QueryBuilder.bindMarker("c_ytd"))
+            .setColumn(Customer.PAYMENT_CNT, QueryBuilder.bindMarker("payment_cnt"))
+            .whereColumn(Customer.WAREHOUSE_ID).isEqualTo(QueryBuilder.bindMarker("w_id"))
+            .whereColumn(Customer.DISTRICT_ID).isEqualTo(QueryBuilder.bindMarker("d_id"))
+            .whereColumn(Customer.ID).isEqualTo(QueryBuilder.bindMarker("c_id"))
+            .ifColumn(Customer.PAYMENT_CNT).isEqualTo(QueryBuilder.bindMarker("old_payment_cnt"))
+            .build());
+        customer = session.execute(QueryBuilder.selectFrom(TableName.CUSTOMER_DATA).all()
+            .whereColumn(Customer.WAREHOUSE_ID).isEqualTo(QueryBuilder.literal(1))
+            .whereColumn(Customer.DISTRICT_ID).isEqualTo(QueryBuilder.literal(1))
+            .whereColumn(Customer.ID).isEqualTo(QueryBuilder.literal(1))
+            .build()).one();
+        paymentFormatter = new RowFormatter(PAYMENT_COLUMNS);
+        prices = new BigDecimal[StubSession.ORDER_LINES];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = new BigDecimal(i + 1).add(new BigDecimal("0.99"));
+        }
+        balance = new BigDecimal("-10.00");
+        payment = new BigDecimal("1500.25");
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.close();
+    }
+
+    @Benchmark
+    public BoundStatement bindPositional() {
+        return updateStock.bind(25, new BigDecimal(5), 1, 0, 1, 42);
+    }
+
+    @Benchmark
+    public BoundStatement bindNamed() {
+        return updateCustomerPayment.boundStatementBuilder()
+            .setBigDecimal("balance", balance)
+            .setFloat("c_ytd", 1510.25f)
+            .setInt("payment_cnt", 2)
+            .setInt("w_id", 1)
+            .setInt("d_id", 1)
+            .setInt("c_id", 1)
+            .setInt("old_payment_cnt", 1)
+            .build();
+    }
+
+    /**
+     * The order line UDTs of one NewOrder.
+     */
+    @Benchmark
+    public List<UdtValue> orderLines() {
+        List<UdtValue> orderLines = new ArrayList<>(prices.length);
+        for (int i = 0; i < prices.length; i++) {
+            orderLines.add(newOrder.getOrderLine(i + 1, i + 1, prices[i], 1, new BigDecimal(5)));
+        }
+        return orderLines;
+    }
+
+    /**
+     * The amounts computed by one NewOrder and one Payment.
+     */
+    @Benchmark
+    public void amounts(Blackhole blackhole) {
+        double totalAmount = 0;
+        for (BigDecimal price : prices) {
+            BigDecimal itemAmount = price.multiply(new BigDecimal(5));
+            totalAmount += itemAmount.doubleValue();
+            blackhole.consume(itemAmount);
+        }
+        blackhole.consume(new BigDecimal(totalAmount));
+        blackhole.consume(totalAmount * (1 + 0.0862 + 0.1015) * (1 - 0.3253));
+        blackhole.consume(balance.subtract(payment));
+        blackhole.consume(Float.sum(10f, payment.floatValue()));
+    }
+
+    @Benchmark
+    public void printPaymentOutput() {
+        paymentFormatter
+            .set(Customer.WAREHOUSE_ID, 1)
+            .set(Customer.DISTRICT_ID, 1)
+            .set(Customer.ID, 1)
+            .set(Customer.PAYMENT_CNT, 2)
+            .set(Customer.BALANCE, balance.subtract(payment))
+            .print(output, customer);
+    }
+
+    @Benchmark
+    public String formatAddress() {
+        return Util.formatColumn(customer, Customer.ADDRESS);
+    }
+}
@@ -0,0 +1,1056 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.datastax.oss.driver.api.core.context.DriverContext;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.BoundStatementBuilder;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.ExecutionInfo;
+import com.datastax.oss.driver.api.core.cql.PrepareRequest;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.data.UdtValue;
+import com.datastax.oss.driver.api.core.detach.AttachmentPoint;
+import com.datastax.oss.driver.api.core.metadata.Metadata;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.TokenMap;
+import com.datastax.oss.driver.api.core.metadata.schema.AggregateMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.FunctionMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.FunctionSignature;
+import com.datastax.oss.driver.api.core.metadata.schema.KeyspaceMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.ViewMetadata;
+import com.datastax.oss.driver.api.core.metrics.Metrics;
+import com.datastax.oss.driver.api.core.session.Request;
+import com.datastax.oss.driver.api.core.type.DataType;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+import com.datastax.oss.driver.api.core.type.UserDefinedType;
+import com.datastax.oss.driver.api.core.type.codec.registry.CodecRegistry;
+import com.datastax.oss.driver.api.core.type.reflect.GenericType;
+
+import wholesale.Constants.Address;
+import wholesale.Constants.Customer;
+import wholesale.Constants.CustomerName;
+import wholesale.Constants.Item;
+import wholesale.Constants.Order;
+import wholesale.Constants.OrderLine;
+import wholesale.Constants.TableName;
+import wholesale.Constants.Udt;
+
+/**
+ * Session answering the statements of the benchmarked transactions from memory, so the benchmarks
+ * measure the client side without a cluster. Every table those statements use has one canned row
+ * holding all of its columns. Writes and batches are dropped and report they were applied, and a
+ * SELECT returns copies of the row of its table:
+ * <ul>
+ * <li>one copy per value of a bound IN list, else LIMIT copies, else one copy when a row key
+ * column of the table is restricted, else {@link #SCAN_ROWS} copies;</li>
+ * <li>the values bound to equality and IN restrictions are copied into the rows, and the row key
+ * columns vary from copy to copy, e.g. the order view returns O_ID 3000, 2999, ... and a scan of
+ * the order table returns one order of each of warehouses 1 to 10.</li>
+ * </ul>
+ * Only statements and batches are answered, through the public driver API. The CQL is only looked
+ * at for its table, the column each bind marker is compared with or inserted into, which gives
+ * the type of the marker, and LIMIT. Anything else, such as a table or column without a canned
+ * value, fails with an {@link IllegalStateException} naming the CQL, which is what to stub here
+ * when a transaction starts issuing it.
+ * Results are built on every execution, which adds the same cost to every run of a benchmark.
+ */
+public final class StubSession implements CqlSession {
+
+    static final int SCAN_ROWS = 10;
+    static final int NEXT_ORDER_ID = 3001;
+    static final int ORDER_LINES = 10;
+
+    private static final CqlIdentifier KEYSPACE = CqlIdentifier.fromCql(Constants.KEYSPACE_NAME);
+    private static final CodecRegistry CODECS = CodecRegistry.DEFAULT;
+    private static final ProtocolVersion PROTOCOL = ProtocolVersion.DEFAULT;
+
+    private static final Pattern TABLE = Pattern.compile("(?i)\\b(?:FROM|INTO|UPDATE)\\s+(?:\\w+\\.)?(\\w+)");
+    private static final Pattern INSERT_COLUMNS = Pattern.compile("\\(([^)]*)\\)\\s*(?i:VALUES)");
+    private static final Pattern MARKER = Pattern.compile("\\?|:(\\w+)");
+    private static final Pattern LITERAL_LIMIT = Pattern.compile("(?i)\\bLIMIT\\s+(\\d+)");
+    // Text in front of a marker: LIMIT, USING TIMESTAMP, a token() bound, a comparison with a column or an IN.
+    private static final Pattern BEFORE_LIMIT = Pattern.compile("(?i)\\bLIMIT\\s*$");
+    private static final Pattern BEFORE_TIMESTAMP = Pattern.compile("(?i)\\bUSING\\s+TIMESTAMP\\s*$");
+    private static final Pattern BEFORE_TOKEN = Pattern.compile("\\)\\s*[<>]=?\\s*$");
+    private static final Pattern BEFORE_COMPARISON = Pattern.compile("(\\w+)\\s*(=|[<>]=?)\\s*$");
+    private static final Pattern BEFORE_IN = Pattern.compile("(?i)(\\w+)\\s+IN\\s*$");
+
+    private final Map<String, Table> tables = new HashMap<>();
+    private final Map<String, Prepared> prepared = new ConcurrentHashMap<>();
+    private final Metadata metadata;
+
+    public StubSession() {
+        StubUdt orderLine = new StubUdt(Udt.ORDER_LINE,
+            OrderLine.NUMBER, DataTypes.INT, OrderLine.ITEM_ID, DataTypes.INT, OrderLine.AMOUNT, DataTypes.DECIMAL,
+            OrderLine.SUPPLY_W_ID, DataTypes.INT, OrderLine.QUANTITY, DataTypes.DECIMAL);
+        StubUdt address = new StubUdt(Udt.ADDRESS, Address.STREET_1, DataTypes.TEXT, Address.STREET_2, DataTypes.TEXT,
+            Address.CITY, DataTypes.TEXT, Address.STATE, DataTypes.TEXT, Address.ZIP, DataTypes.TEXT);
+        StubUdt customerName = new StubUdt(Udt.CUSTOMER_NAME, CustomerName.FIRST_NAME, DataTypes.TEXT,
+            CustomerName.MIDDLE_NAME, DataTypes.TEXT, CustomerName.LAST_NAME, DataTypes.TEXT);
+        Map<CqlIdentifier, UserDefinedType> types = new HashMap<>();
+        for (StubUdt type : Arrays.asList(orderLine, address, customerName)) {
+            types.put(type.getName(), type);
+        }
+        this.metadata = new StubMetadata(new StubKeyspace(types));
+
+        UdtValue addressValue = address.newValue("Street 1", "Street 2", "Singapore", "SG", "123456789");
+        UdtValue nameValue = customerName.newValue("Alice", "OE", "BARBARBAR");
+        List<Integer> itemIds = new ArrayList<>();
+        List<UdtValue> orderLines = new ArrayList<>();
+        for (int i = 1; i <= ORDER_LINES; i++) {
+            itemIds.add(i);
+            orderLines.add(orderLine.newValue(i, i, new BigDecimal("42.50"), 1, new BigDecimal(5)));
+        }
+        Instant entryDate = Instant.parse("2022-10-01T12:00:00Z");
+        DataType orderLinesType = DataTypes.listOf(orderLine, true);
+
+        table(TableName.CUSTOMER_DATA).varying(Customer.ID, 1, 1)
+            .column(Customer.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Customer.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Customer.ID, DataTypes.INT, 1)
+            .column(Customer.WAREHOUSE_NAME, DataTypes.TEXT, "warehouse")
+            .column(Customer.WAREHOUSE_ADDRESS, address, addressValue)
+            .column(Customer.WAREHOUSE_TAX, DataTypes.DECIMAL, new BigDecimal("0.0862"))
+            .column(Customer.DISTRICT_NAME, DataTypes.TEXT, "district")
+            .column(Customer.DISTRICT_ADDRESS, address, addressValue)
+            .column(Customer.DISTRICT_TAX, DataTypes.DECIMAL, new BigDecimal("0.1015"))
+            .column(Customer.NAME, customerName, nameValue)
+            .column(Customer.ADDRESS, address, addressValue)
+            .column(Customer.PHONE, DataTypes.TEXT, "1234567890123456")
+            .column(Customer.SINCE, DataTypes.TIMESTAMP, entryDate)
+            .column(Customer.CREDIT, DataTypes.TEXT, "GC")
+            .column(Customer.CREDIT_LIM, DataTypes.DECIMAL, new BigDecimal("50000.00"))
+            .column(Customer.DISCOUNT, DataTypes.DECIMAL, new BigDecimal("0.3253"))
+            .column(Customer.DATA, DataTypes.TEXT, "customer data");
+        Table customerOrderStats = table(TableName.CUSTOMER_ORDER_STATS).varying(Customer.ID, 1, 1)
+            .column(Customer.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Customer.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Customer.ID, DataTypes.INT, 1)
+            .column(Customer.NAME, customerName, nameValue)
+            .column(Customer.BALANCE, DataTypes.DECIMAL, new BigDecimal("-10.00"))
+            .column(Customer.YTD_PAYMENT, DataTypes.FLOAT, 10f)
+            .column(Customer.PAYMENT_CNT, DataTypes.INT, 1)
+            .column(Customer.DELIVERY_CNT, DataTypes.INT, 0);
+        for (int i = 1; i <= Constants.NUM_DISTRICTS; i++) {
+            customerOrderStats.column(String.format("D_%d_YTD", i), DataTypes.DECIMAL, new BigDecimal("30000.00"));
+        }
+        table(TableName.CUSTOMER_BALANCE).varying(Customer.ID, 1, 1)
+            .column(Customer.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Customer.BALANCE, DataTypes.DECIMAL, new BigDecimal("-10.00"))
+            .column(Customer.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Customer.ID, DataTypes.INT, 1);
+        table(TableName.ORDER).varying(Order.ORDER_ID, NEXT_ORDER_ID - 1, -1).varying(Order.WAREHOUSE_ID, 1, 1)
+            .column(Order.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Order.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Order.CUSTOMER_ID, DataTypes.INT, 1)
+            .column(Order.ORDER_ID, DataTypes.INT, NEXT_ORDER_ID - 1)
+            .column(Order.D_NEXT_ORDER_ID, DataTypes.INT, NEXT_ORDER_ID)
+            .column(Order.ORDERLINE_COUNT, DataTypes.DECIMAL, new BigDecimal(ORDER_LINES))
+            .column(Order.ALL_COUNT, DataTypes.DECIMAL, BigDecimal.ONE)
+            .column(Order.ENTRY_DATE, DataTypes.TIMESTAMP, entryDate)
+            .column(Order.TOTAL_OL_QUANTITY, DataTypes.INT, 5 * ORDER_LINES)
+            .column(Order.ITEM_IDS, DataTypes.listOf(DataTypes.INT), itemIds)
+            .column(Order.ORDER_LINES, orderLinesType, orderLines);
+        table(TableName.ORDER_MAT_VIEW).varying(Order.ORDER_ID, NEXT_ORDER_ID - 1, -1).varying(Order.CUSTOMER_ID, 1, 1)
+            .column(Order.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Order.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Order.ORDER_ID, DataTypes.INT, NEXT_ORDER_ID - 1)
+            .column(Order.CUSTOMER_ID, DataTypes.INT, 1)
+            .column(Order.ENTRY_DATE, DataTypes.TIMESTAMP, entryDate)
+            .column(Order.ITEM_IDS, DataTypes.listOf(DataTypes.INT), itemIds)
+            .column(Order.ORDER_LINES, orderLinesType, orderLines);
+        table(TableName.ORDER_CARRIER).varying(Order.DISTRICT_ID, 1, 1)
+            .column(Order.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Order.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Order.ORDER_ID, DataTypes.INT, 2101)
+            .column(Order.CUSTOMER_ID, DataTypes.INT, 1)
+            .column(Order.CARRIER_ID, DataTypes.INT, 5)
+            .column(Order.TOTAL_AMOUNT, DataTypes.DECIMAL, new BigDecimal("425.00"))
+            .column(Order.DELIVERY_DATE, DataTypes.TIMESTAMP, entryDate);
+        table(TableName.UNDELIVERED_ORDER).varying(Order.ORDER_ID, 2101, 1)
+            .column(Order.WAREHOUSE_ID, DataTypes.INT, 1)
+            .column(Order.DISTRICT_ID, DataTypes.INT, 1)
+            .column(Order.ORDER_ID, DataTypes.INT, 2101)
+            .column(Order.CUSTOMER_ID, DataTypes.INT, 1)
+            .column(Order.TOTAL_AMOUNT, DataTypes.DECIMAL, new BigDecimal("425.00"));
+        Table stock = table(TableName.STOCK).varying("S_I_ID", 1, 1)
+            .column("S_W_ID", DataTypes.INT, 1)
+            .column("S_I_ID", DataTypes.INT, 1)
+            .column("S_QUANTITY", DataTypes.INT, 15)
+            .column("S_YTD", DataTypes.DECIMAL, new BigDecimal("0.00"))
+            .column("S_ORDER_CNT", DataTypes.INT, 0)
+            .column("S_REMOTE_CNT", DataTypes.INT, 0);
+        for (int i = 1; i <= Constants.NUM_DISTRICTS; i++) {
+            stock.column("S_DIST_" + i, DataTypes.TEXT, "stock district info");
+        }
+        stock.column("S_DATA", DataTypes.TEXT, "stock data");
+        table(TableName.ITEM).varying(Item.ITEM_ID, 1, 1)
+            .column("I", DataTypes.INT, 1)
+            .column(Item.ITEM_ID, DataTypes.INT, 1)
+            .column(Item.NAME, DataTypes.TEXT, "item name")
+            .column(Item.PRICE, DataTypes.DECIMAL, new BigDecimal("8.50"))
+            .column("I_IM_ID", DataTypes.INT, 1)
+            .column("I_DATA", DataTypes.TEXT, "item data");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <RequestT extends Request, ResultT> ResultT execute(RequestT request, GenericType<ResultT> resultType) {
+        if (request instanceof PrepareRequest) {
+            String cql = ((PrepareRequest) request).getQuery();
+            PreparedStatement statement = prepared.computeIfAbsent(cql, this::newPrepared);
+            return (ResultT) (resultType.equals(PrepareRequest.ASYNC) ? CompletableFuture.completedFuture(statement) : statement);
+        }
+        if (resultType.equals(Statement.ASYNC)) {
+            return (ResultT) CompletableFuture.completedFuture(run(request));
+        }
+        if (resultType.equals(Statement.SYNC)) {
+            return (ResultT) new StubResultSet(run(request));
+        }
+        throw unstubbed(resultType + " results", cql(request));
+    }
+
+    private Prepared newPrepared(String cql) {
+        Matcher tableName = TABLE.matcher(cql);
+        if (!tableName.find()) {
+            throw unstubbed("statements without a table", cql);
+        }
+        Table table = tables.get(identifier(tableName.group(1)));
+        if (table == null) {
+            throw unstubbed("table " + tableName.group(1), cql);
+        }
+        Matcher insert = INSERT_COLUMNS.matcher(cql);
+        List<String> inserted = insert.find() ? Arrays.asList(insert.group(1).split(",")) : Collections.emptyList();
+        List<ColumnDefinition> variables = new ArrayList<>();
+        List<String> restricted = new ArrayList<>();
+        int limitIndex = -1;
+        Matcher marker = MARKER.matcher(cql);
+        while (marker.find()) {
+            String before = cql.substring(0, marker.start());
+            // Column the marker is compared with or inserted into, and the one it restricts.
+            String named = null;
+            String column = null;
+            DataType type;
+            Matcher matcher;
+            if (BEFORE_LIMIT.matcher(before).find()) {
+                limitIndex = variables.size();
+                type = DataTypes.INT;
+            } else if (BEFORE_TIMESTAMP.matcher(before).find() || BEFORE_TOKEN.matcher(before).find()) {
+                type = DataTypes.BIGINT;
+            } else if ((matcher = BEFORE_IN.matcher(before)).find()) {
+                named = column = matcher.group(1);
+                type = DataTypes.listOf(type(table, column, cql));
+            } else if ((matcher = BEFORE_COMPARISON.matcher(before)).find()) {
+                named = matcher.group(1);
+                column = matcher.group(2).equals("=") ? named : null;
+                type = type(table, named, cql);
+            } else if (variables.size() < inserted.size()) {
+                named = inserted.get(variables.size()).trim();
+                type = type(table, named, cql);
+            } else {
+                throw unstubbed("bind marker " + variables.size(), cql);
+            }
+            String name = marker.group(1) != null ? identifier(marker.group(1))
+                : named != null ? identifier(named) : "[" + variables.size() + "]";
+            variables.add(new StubColumn(table.name, name, type));
+            restricted.add(column != null ? identifier(column) : null);
+        }
+        boolean select = cql.trim().regionMatches(true, 0, "SELECT", 0, 6);
+        Matcher limit = LITERAL_LIMIT.matcher(cql);
+        return new Prepared(cql, table, select, new StubColumns(variables), restricted,
+            limit.find() ? Integer.parseInt(limit.group(1)) : -1, limitIndex);
+    }
+
+    private StubAsyncResultSet run(Request request) {
+        if (request instanceof BatchStatement) {
+            // Its statements were prepared, which checked them.
+            return new StubAsyncResultSet(null, Collections.emptyList());
+        }
+        Prepared query;
+        Object[] values;
+        if (request instanceof BoundStatement) {
+            BoundStatement bound = (BoundStatement) request;
+            query = (Prepared) bound.getPreparedStatement();
+            values = new Object[bound.size()];
+            for (int i = 0; i < values.length; i++) {
+                ByteBuffer bytes = bound.getBytesUnsafe(i);
+                values[i] = bytes == null ? null : CODECS.codecFor(bound.getType(i)).decode(bytes, PROTOCOL);
+            }
+        } else if (request instanceof SimpleStatement) {
+            // Values are literals in the CQL.
+            query = prepared.computeIfAbsent(((SimpleStatement) request).getQuery(), this::newPrepared);
+            values = new Object[0];
+        } else {
+            throw unstubbed("requests of type " + request.getClass().getSimpleName(), cql(request));
+        }
+        Table table = query.table;
+        if (!query.select) {
+            return new StubAsyncResultSet(table.definitions(), Collections.emptyList());
+        }
+        Map<String, Object> equal = new HashMap<>();
+        List<?> in = null;
+        String inColumn = null;
+        int limit = query.limit;
+        for (int i = 0; i < values.length; i++) {
+            String column = query.restricted.get(i);
+            if (values[i] instanceof List && column != null) {
+                in = (List<?>) values[i];
+                inColumn = column;
+            } else if (column != null) {
+                equal.put(column, values[i]);
+            } else if (i == query.limitIndex) {
+                limit = (Integer) values[i];
+            }
+        }
+        int count = in != null ? in.size() : limit > 0 ? limit
+            : table.varying.keySet().stream().anyMatch(equal::containsKey) ? 1 : SCAN_ROWS;
+
+        ColumnDefinitions definitions = table.definitions();
+        List<Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer[] data = new ByteBuffer[definitions.size()];
+            for (int j = 0; j < data.length; j++) {
+                ColumnDefinition definition = definitions.get(j);
+                String column = definition.getName().asInternal();
+                if (column.equals(inColumn)) {
+                    data[j] = encode(definition.getType(), in.get(i));
+                } else if (equal.containsKey(column)) {
+                    data[j] = encode(definition.getType(), equal.get(column));
+                } else if (table.varying.containsKey(column)) {
+                    int[] sequence = table.varying.get(column);
+                    data[j] = encode(definition.getType(), sequence[0] + sequence[1] * i);
+                } else {
+                    ByteBuffer value = table.encoded.get(column);
+                    data[j] = value == null ? null : value.duplicate();
+                }
+            }
+            rows.add(new StubRow(definitions, data));
+        }
+        return new StubAsyncResultSet(definitions, rows);
+    }
+
+    private static ByteBuffer encode(DataType type, Object value) {
+        return value == null ? null : CODECS.codecFor(type).encode(value, PROTOCOL);
+    }
+
+    private Table table(String name) {
+        return tables.computeIfAbsent(identifier(name), Table::new);
+    }
+
+    private static DataType type(Table table, String column, String cql) {
+        DataType type = table.columns.get(identifier(column));
+        if (type == null) {
+            throw unstubbed("column " + column + " of " + table.name, cql);
+        }
+        return type;
+    }
+
+    /**
+     * CQL of a request, or its class when it has none.
+     */
+    private static String cql(Request request) {
+        if (request instanceof SimpleStatement) {
+            return ((SimpleStatement) request).getQuery();
+        }
+        if (request instanceof BoundStatement) {
+            return ((BoundStatement) request).getPreparedStatement().getQuery();
+        }
+        return request.getClass().getName();
+    }
+
+    /**
+     * Failure of a request the benchmarks did not issue so far, naming its CQL.
+     */
+    private static IllegalStateException unstubbed(String what, String cql) {
+        return new IllegalStateException("StubSession does not stub " + what + ": " + cql);
+    }
+
+    /**
+     * Internal name of a CQL identifier: unquoted names are case insensitive.
+     */
+    private static String identifier(String cql) {
+        return CqlIdentifier.fromCql(cql).asInternal();
+    }
+
+    private static final class Table {
+        final String name;
+        final Map<String, DataType> columns = new LinkedHashMap<>();
+        final Map<String, ByteBuffer> encoded = new HashMap<>();
+        // Columns taking the values start, start + step, ... in the rows of one result.
+        final Map<String, int[]> varying = new HashMap<>();
+        private ColumnDefinitions definitions;
+
+        Table(String name) {
+            this.name = name;
+        }
+
+        Table column(String column, DataType type, Object value) {
+            columns.put(identifier(column), type);
+            encoded.put(identifier(column), encode(type, value));
+            return this;
+        }
+
+        Table varying(String column, int start, int step) {
+            varying.put(identifier(column), new int[] {start, step});
+            return this;
+        }
+
+        /**
+         * Columns of every row of the table, whatever the SELECT asks for.
+         */
+        ColumnDefinitions definitions() {
+            if (definitions == null) {
+                List<ColumnDefinition> list = new ArrayList<>();
+                for (Map.Entry<String, DataType> column : columns.entrySet()) {
+                    list.add(new StubColumn(name, column.getKey(), column.getValue()));
+                }
+                definitions = new StubColumns(list);
+            }
+            return definitions;
+        }
+    }
+
+    private static final class Prepared implements PreparedStatement {
+        final String cql;
+        final Table table;
+        final boolean select;
+        final ColumnDefinitions variables;
+        // Column of the table each marker is compared with for equality or IN, else null.
+        final List<String> restricted;
+        // LIMIT written in the CQL, else -1, and the marker of the LIMIT, else -1.
+        final int limit;
+        final int limitIndex;
+
+        Prepared(String cql, Table table, boolean select, ColumnDefinitions variables, List<String> restricted, int limit,
+                int limitIndex) {
+            this.cql = cql;
+            this.table = table;
+            this.select = select;
+            this.variables = variables;
+            this.restricted = restricted;
+            this.limit = limit;
+            this.limitIndex = limitIndex;
+        }
+
+        @Override
+        public ByteBuffer getId() {
+            return ByteBuffer.wrap(cql.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String getQuery() {
+            return cql;
+        }
+
+        @Override
+        public ColumnDefinitions getVariableDefinitions() {
+            return variables;
+        }
+
+        @Override
+        public List<Integer> getPartitionKeyIndices() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public ByteBuffer getResultMetadataId() {
+            return null;
+        }
+
+        @Override
+        public ColumnDefinitions getResultSetDefinitions() {
+            return table.definitions();
+        }
+
+        @Override
+        public void setResultMetadata(ByteBuffer newResultMetadataId, ColumnDefinitions newResultSetDefinitions) {
+        }
+
+        @Override
+        public BoundStatement bind(Object... values) {
+            return boundStatementBuilder(values).build();
+        }
+
+        @Override
+        public BoundStatementBuilder boundStatementBuilder(Object... values) {
+            ByteBuffer[] encoded = new ByteBuffer[variables.size()];
+            for (int i = 0; i < values.length; i++) {
+                encoded[i] = values[i] == null ? null : CODECS.codecFor(variables.get(i).getType(), values[i]).encode(values[i],
+                    PROTOCOL);
+            }
+            return new BoundStatementBuilder(this, variables, encoded, null, null, KEYSPACE, null, null,
+                Collections.emptyMap(), null, false, Statement.NO_DEFAULT_TIMESTAMP, null, 0, null, null, null, CODECS,
+                PROTOCOL);
+        }
+    }
+
+    private static final class StubColumn implements ColumnDefinition {
+        private final CqlIdentifier table;
+        private final CqlIdentifier name;
+        private final DataType type;
+
+        StubColumn(String table, String name, DataType type) {
+            this.table = CqlIdentifier.fromInternal(table);
+            this.name = CqlIdentifier.fromInternal(name);
+            this.type = type;
+        }
+
+        @Override
+        public CqlIdentifier getKeyspace() {
+            return KEYSPACE;
+        }
+
+        @Override
+        public CqlIdentifier getTable() {
+            return table;
+        }
+
+        @Override
+        public CqlIdentifier getName() {
+            return name;
+        }
+
+        @Override
+        public DataType getType() {
+            return type;
+        }
+
+        @Override
+        public boolean isDetached() {
+            return false;
+        }
+
+        @Override
+        public void attach(AttachmentPoint attachmentPoint) {
+        }
+    }
+
+    private static final class StubColumns implements ColumnDefinitions {
+        private final List<ColumnDefinition> columns;
+        private final Map<CqlIdentifier, Integer> indexes = new HashMap<>();
+
+        StubColumns(List<ColumnDefinition> columns) {
+            this.columns = columns;
+            for (int i = columns.size() - 1; i >= 0; i--) {
+                indexes.put(columns.get(i).getName(), i);
+            }
+        }
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        @Override
+        public ColumnDefinition get(int i) {
+            return columns.get(i);
+        }
+
+        @Override
+        public Iterator<ColumnDefinition> iterator() {
+            return columns.iterator();
+        }
+
+        @Override
+        public boolean contains(String name) {
+            return firstIndexOf(name) >= 0;
+        }
+
+        @Override
+        public boolean contains(CqlIdentifier id) {
+            return firstIndexOf(id) >= 0;
+        }
+
+        @Override
+        public int firstIndexOf(String name) {
+            return firstIndexOf(CqlIdentifier.fromCql(name));
+        }
+
+        @Override
+        public int firstIndexOf(CqlIdentifier id) {
+            return indexes.getOrDefault(id, -1);
+        }
+
+        @Override
+        public boolean isDetached() {
+            return false;
+        }
+
+        @Override
+        public void attach(AttachmentPoint attachmentPoint) {
+        }
+    }
+
+    private static final class StubRow implements Row {
+        private final ColumnDefinitions definitions;
+        private final ByteBuffer[] data;
+
+        StubRow(ColumnDefinitions definitions, ByteBuffer[] data) {
+            this.definitions = definitions;
+            this.data = data;
+        }
+
+        @Override
+        public ColumnDefinitions getColumnDefinitions() {
+            return definitions;
+        }
+
+        @Override
+        public ByteBuffer getBytesUnsafe(int i) {
+            return data[i];
+        }
+
+        @Override
+        public int size() {
+            return data.length;
+        }
+
+        @Override
+        public DataType getType(int i) {
+            return definitions.get(i).getType();
+        }
+
+        @Override
+        public int firstIndexOf(String name) {
+            return definitions.firstIndexOf(name);
+        }
+
+        @Override
+        public DataType getType(String name) {
+            return getType(firstIndexOf(name));
+        }
+
+        @Override
+        public int firstIndexOf(CqlIdentifier id) {
+            return definitions.firstIndexOf(id);
+        }
+
+        @Override
+        public DataType getType(CqlIdentifier id) {
+            return getType(firstIndexOf(id));
+        }
+
+        @Override
+        public CodecRegistry codecRegistry() {
+            return CODECS;
+        }
+
+        @Override
+        public ProtocolVersion protocolVersion() {
+            return PROTOCOL;
+        }
+
+        @Override
+        public boolean isDetached() {
+            return false;
+        }
+
+        @Override
+        public void attach(AttachmentPoint attachmentPoint) {
+        }
+    }
+
+    /**
+     * Single page result. Every write reports it was applied.
+     */
+    private static final class StubAsyncResultSet implements AsyncResultSet {
+        private final ColumnDefinitions definitions;
+        private final List<Row> rows;
+        private int next;
+
+        StubAsyncResultSet(ColumnDefinitions definitions, List<Row> rows) {
+            this.definitions = definitions;
+            this.rows = rows;
+        }
+
+        @Override
+        public ColumnDefinitions getColumnDefinitions() {
+            return definitions;
+        }
+
+        @Override
+        public ExecutionInfo getExecutionInfo() {
+            return null;
+        }
+
+        @Override
+        public int remaining() {
+            return rows.size() - next;
+        }
+
+        @Override
+        public Iterable<Row> currentPage() {
+            return () -> new Iterator<Row>() {
+                @Override
+                public boolean hasNext() {
+                    return next < rows.size();
+                }
+
+                @Override
+                public Row next() {
+                    return rows.get(next++);
+                }
+            };
+        }
+
+        @Override
+        public boolean hasMorePages() {
+            return false;
+        }
+
+        @Override
+        public CompletionStage<AsyncResultSet> fetchNextPage() {
+            throw new IllegalStateException("No next page");
+        }
+
+        @Override
+        public boolean wasApplied() {
+            return true;
+        }
+    }
+
+    private static final class StubResultSet implements ResultSet {
+        private final StubAsyncResultSet page;
+
+        StubResultSet(StubAsyncResultSet page) {
+            this.page = page;
+        }
+
+        @Override
+        public ColumnDefinitions getColumnDefinitions() {
+            return page.getColumnDefinitions();
+        }
+
+        @Override
+        public List<ExecutionInfo> getExecutionInfos() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isFullyFetched() {
+            return true;
+        }
+
+        @Override
+        public int getAvailableWithoutFetching() {
+            return page.remaining();
+        }
+
+        @Override
+        public Iterator<Row> iterator() {
+            return page.currentPage().iterator();
+        }
+
+        @Override
+        public boolean wasApplied() {
+            return true;
+        }
+    }
+
+    private static final class StubUdt implements UserDefinedType {
+        private final CqlIdentifier name;
+        private final List<CqlIdentifier> fieldNames = new ArrayList<>();
+        private final List<DataType> fieldTypes = new ArrayList<>();
+
+        /**
+         * {@code fields} alternates the name and the type of every field.
+         */
+        StubUdt(String name, Object... fields) {
+            this.name = CqlIdentifier.fromCql(name);
+            for (int i = 0; i < fields.length; i += 2) {
+                fieldNames.add(CqlIdentifier.fromCql((String) fields[i]));
+                fieldTypes.add((DataType) fields[i + 1]);
+            }
+        }
+
+        @Override
+        public CqlIdentifier getKeyspace() {
+            return KEYSPACE;
+        }
+
+        @Override
+        public CqlIdentifier getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isFrozen() {
+            return true;
+        }
+
+        @Override
+        public List<CqlIdentifier> getFieldNames() {
+            return fieldNames;
+        }
+
+        @Override
+        public int firstIndexOf(CqlIdentifier id) {
+            return fieldNames.indexOf(id);
+        }
+
+        @Override
+        public int firstIndexOf(String name) {
+            return firstIndexOf(CqlIdentifier.fromCql(name));
+        }
+
+        @Override
+        public List<DataType> getFieldTypes() {
+            return fieldTypes;
+        }
+
+        @Override
+        public UserDefinedType copy(boolean newFrozen) {
+            return this;
+        }
+
+        @Override
+        public UdtValue newValue() {
+            return new StubUdtValue(this);
+        }
+
+        @Override
+        public UdtValue newValue(Object... fields) {
+            UdtValue value = newValue();
+            for (int i = 0; i < fields.length; i++) {
+                value = value.setBytesUnsafe(i, encode(fieldTypes.get(i), fields[i]));
+            }
+            return value;
+        }
+
+        @Override
+        public AttachmentPoint getAttachmentPoint() {
+            return AttachmentPoint.NONE;
+        }
+
+        @Override
+        public boolean isDetached() {
+            return false;
+        }
+
+        @Override
+        public void attach(AttachmentPoint attachmentPoint) {
+        }
+    }
+
+    private static final class StubUdtValue implements UdtValue {
+        private final StubUdt type;
+        private final ByteBuffer[] fields;
+
+        StubUdtValue(StubUdt type) {
+            this.type = type;
+            this.fields = new ByteBuffer[type.fieldTypes.size()];
+        }
+
+        @Override
+        public UserDefinedType getType() {
+            return type;
+        }
+
+        @Override
+        public ByteBuffer getBytesUnsafe(int i) {
+            return fields[i];
+        }
+
+        @Override
+        public UdtValue setBytesUnsafe(int i, ByteBuffer v) {
+            fields[i] = v;
+            return this;
+        }
+
+        @Override
+        public int size() {
+            return fields.length;
+        }
+
+        @Override
+        public DataType getType(int i) {
+            return type.fieldTypes.get(i);
+        }
+
+        @Override
+        public int firstIndexOf(String name) {
+            return type.firstIndexOf(name);
+        }
+
+        @Override
+        public int firstIndexOf(CqlIdentifier id) {
+            return type.firstIndexOf(id);
+        }
+
+        @Override
+        public CodecRegistry codecRegistry() {
+            return CODECS;
+        }
+
+        @Override
+        public ProtocolVersion protocolVersion() {
+            return PROTOCOL;
+        }
+    }
+
+    private static final class StubKeyspace implements KeyspaceMetadata {
+        private final Map<CqlIdentifier, UserDefinedType> types;
+
+        StubKeyspace(Map<CqlIdentifier, UserDefinedType> types) {
+            this.types = types;
+        }
+
+        @Override
+        public CqlIdentifier getName() {
+            return KEYSPACE;
+        }
+
+        @Override
+        public boolean isDurableWrites() {
+            return true;
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return false;
+        }
+
+        @Override
+        public Map<String, String> getReplication() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<CqlIdentifier, TableMetadata> getTables() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<CqlIdentifier, ViewMetadata> getViews() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<CqlIdentifier, UserDefinedType> getUserDefinedTypes() {
+            return types;
+        }
+
+        @Override
+        public Map<FunctionSignature, FunctionMetadata> getFunctions() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<FunctionSignature, AggregateMetadata> getAggregates() {
+            return Collections.emptyMap();
+        }
+    }
+
+    private static final class StubMetadata implements Metadata {
+        private final Map<CqlIdentifier, KeyspaceMetadata> keyspaces;
+
+        StubMetadata(KeyspaceMetadata keyspace) {
+            this.keyspaces = Collections.singletonMap(keyspace.getName(), keyspace);
+        }
+
+        @Override
+        public Map<UUID, Node> getNodes() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Map<CqlIdentifier, KeyspaceMetadata> getKeyspaces() {
+            return keyspaces;
+        }
+
+        @Override
+        public Optional<TokenMap> getTokenMap() {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "stub";
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public boolean isSchemaMetadataEnabled() {
+        return true;
+    }
+
+    @Override
+    public CompletionStage<Metadata> setSchemaMetadataEnabled(Boolean newValue) {
+        return CompletableFuture.completedFuture(metadata);
+    }
+
+    @Override
+    public CompletionStage<Metadata> refreshSchemaAsync() {
+        return CompletableFuture.completedFuture(metadata);
+    }
+
+    @Override
+    public CompletionStage<Boolean> checkSchemaAgreementAsync() {
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public DriverContext getContext() {
+        throw new IllegalStateException("StubSession has no driver context");
+    }
+
+    @Override
+    public Optional<CqlIdentifier> getKeyspace() {
+        return Optional.of(KEYSPACE);
+    }
+
+    @Override
+    public Optional<Metrics> getMetrics() {
+        return Optional.empty();
+    }
+
+    @Override
+    public CompletionStage<Void> closeFuture() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletionStage<Void> closeAsync() {
+        return closeFuture();
+    }
+
+    @Override
+    public CompletionStage<Void> forceCloseAsync() {
+        return closeFuture();
+    }
+}
@@ -0,0 +1,117 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Client side cost of each of the eight transaction classes, from binding the statements to
+ * printing the output, against a {@link StubSession}. Options of
+ * {@link Config} are set with {@code -jvmArgsAppend -Dwholesale.<name>=<value>}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dwholesale.topBalance.reconcileSeconds=0")
+public class TransactionBenchmark {
+
+    private static final int ORDER_ITEMS = 10;
+
+    private TransactionOutput output;
+    private NewOrderTransaction newOrder;
+    private PaymentTransactionHandler payment;
+    private DeliveryTransactionHandler delivery;
+    private OrderStatusTransaction orderStatus;
+    private StockLevelTransaction stockLevel;
+    private PopularItemsTransaction popularItems;
+    private TopBalanceTransactionHandler topBalance;
+    private RelatedCustomerTransaction relatedCustomer;
+    private List<InputOrderItem> orderItems;
+    private BigDecimal paymentAmount;
+
+    @Setup
+    public void setUp() {
+        // Formats the output and hashes it, without writing it anywhere.
+        output = new DigestOutput(0);
+        StubSession session = new StubSession();
+        newOrder = new NewOrderTransaction(session, output);
+        payment = new PaymentTransactionHandler(session, output);
+        delivery = new DeliveryTransactionHandler(session);
+        orderStatus = new OrderStatusTransaction(session, output);
+        stockLevel = new StockLevelTransaction(session, output);
+        popularItems = new PopularItemsTransaction(session, output);
+        topBalance = new TopBalanceTransactionHandler(session, output);
+        relatedCustomer = new RelatedCustomerTransaction(session, output);
+        orderItems = new ArrayList<>();
+        for (int i = 1; i <= ORDER_ITEMS; i++) {
+            // One item of every order comes from another warehouse.
+            orderItems.add(new InputOrderItem(i, i == ORDER_ITEMS ? 2 : 1, 5));
+        }
+        paymentAmount = new BigDecimal("1500.25");
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.close();
+    }
+
+    /**
+     * Runs without the related customer index: every order is placed by the same customer and
+     * would be added to it, so the index would grow for the whole run.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dwholesale.topBalance.reconcileSeconds=0", "-Dwholesale.relatedCustomer.index=false"})
+    public boolean newOrder() {
+        return newOrder.executeTransaction(1, 1, 1, orderItems);
+    }
+
+    @Benchmark
+    public boolean payment() {
+        return payment.execute(1, 1, 1, paymentAmount);
+    }
+
+    @Benchmark
+    public DeliveryTransactionHandler.Result delivery() {
+        return delivery.execute(1, 5);
+    }
+
+    @Benchmark
+    public void orderStatus() {
+        orderStatus.executeTransaction(1, 1, 1);
+    }
+
+    @Benchmark
+    public void stockLevel() {
+        stockLevel.executeTransaction(1, 1, 20, 50);
+    }
+
+    @Benchmark
+    public void popularItems() {
+        popularItems.executeTransaction(1, 1, 50);
+    }
+
+    @Benchmark
+    public void topBalance() {
+        topBalance.execute();
+    }
+
+    @Benchmark
+    public void relatedCustomer() {
+        relatedCustomer.executeTransaction(1, 1, 1);
+    }
+}
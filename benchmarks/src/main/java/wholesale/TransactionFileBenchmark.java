@@ -0,0 +1,97 @@
+package wholesale;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of the transaction files, per transaction, in the text format and in the compiled
+ * binary format. The file holds the same mix of the eight transaction types over and over.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionFileBenchmark {
+
+    private static final int REPEATS = 1000;
+    private static final int TRANSACTIONS = 8 * REPEATS;
+
+    private File textFile;
+    private File binaryFile;
+    private final TransactionRecord record = new TransactionRecord();
+
+    @Setup
+    public void setUp() throws IOException {
+        textFile = File.createTempFile("transactions", ".txt");
+        try (PrintWriter writer = new PrintWriter(textFile)) {
+            for (int i = 0; i < REPEATS; i++) {
+                writer.println("N,1203,8,3,10");
+                for (int item = 1; item <= 10; item++) {
+                    writer.println(item * 9173 + "," + (item == 10 ? 2 : 8) + "," + item % 5);
+                }
+                writer.println("P,8,3,1203,3141.59");
+                writer.println("D,8,4");
+                writer.println("O,8,3,1203");
+                writer.println("S,8,3,15,50");
+                writer.println("I,8,3,50");
+                writer.println("T");
+                writer.println("R,8,3,1203");
+            }
+        }
+        binaryFile = new File(TransactionFileCompiler.binaryPathFor(textFile.getPath()));
+        TransactionFileCompiler.compile(textFile.getPath(), binaryFile.getPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        textFile.delete();
+        binaryFile.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void text(Blackhole blackhole) throws IOException {
+        try (TransactionReader reader = new TextTransactionReader(textFile.getPath())) {
+            read(reader, blackhole);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRANSACTIONS)
+    public void binary(Blackhole blackhole) throws IOException {
+        try (TransactionReader reader = new BinaryTransactionReader(binaryFile.getPath())) {
+            read(reader, blackhole);
+        }
+    }
+
+    /**
+     * Decodes every transaction as {@link TransactionHandler} does before timing it.
+     */
+    private void read(TransactionReader reader, Blackhole blackhole) throws IOException {
+        while (reader.next(record)) {
+            blackhole.consume(record.getArg(0));
+            if (record.getType() == 'P') {
+                blackhole.consume(record.getPayment());
+            }
+            blackhole.consume(record.getOrderItems());
+        }
+    }
+}
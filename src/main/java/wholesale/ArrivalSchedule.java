@@ -0,0 +1,84 @@
+package wholesale;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Intended start times of an open-loop client. Transactions are scheduled at a target rate
+ * regardless of how long earlier transactions took, either evenly spaced or as a Poisson process.
+ * Latency is measured from the intended start so queueing behind a slow transaction is counted.
+ */
+public class ArrivalSchedule {
+
+    private final double ratePerSecond;
+    private final boolean poisson;
+    private final Random random;
+
+    private long nextStart;
+
+    public ArrivalSchedule(double ratePerSecond, boolean poisson, long seed) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Target rate must be positive: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.poisson = poisson;
+        this.random = new Random(seed);
+        this.nextStart = System.nanoTime();
+    }
+
+    /**
+     * Whether the clients run open loop, see {@link Config#LOAD_MODE}.
+     */
+    public static boolean isOpenLoop() {
+        switch (Config.LOAD_MODE) {
+            case "closed":
+                return false;
+            case "open":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown load mode: " + Config.LOAD_MODE);
+        }
+    }
+
+    /**
+     * Returns the schedule of client {@code clientIndex}, or null in closed-loop mode.
+     */
+    public static ArrivalSchedule fromConfig(int clientIndex) {
+        if (!isOpenLoop()) {
+            return null;
+        }
+        switch (Config.LOAD_ARRIVALS) {
+            case "fixed":
+                return new ArrivalSchedule(Config.LOAD_RATE, false, clientIndex);
+            case "poisson":
+                return new ArrivalSchedule(Config.LOAD_RATE, true, clientIndex);
+            default:
+                throw new IllegalArgumentException("Unknown arrival process: " + Config.LOAD_ARRIVALS);
+        }
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Waits until the intended start of the next transaction and returns it, in
+     * {@link System#nanoTime()} units. Returns immediately when the client is behind schedule.
+     */
+    public long awaitNext() {
+        long intendedStart = nextStart;
+        nextStart += nextGapNanos();
+        for (long now = System.nanoTime(); now < intendedStart; now = System.nanoTime()) {
+            LockSupport.parkNanos(intendedStart - now);
+        }
+        return intendedStart;
+    }
+
+    private long nextGapNanos() {
+        double meanGapNanos = 1_000_000_000.0 / ratePerSecond;
+        if (!poisson) {
+            return (long) meanGapNanos;
+        }
+        return (long) (-Math.log(1.0 - random.nextDouble()) * meanGapNanos);
+    }
+}
@@ -0,0 +1,52 @@
+package wholesale;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a transaction file compiled by {@link TransactionFileCompiler} straight from a
+ * memory-mapped buffer.
+ */
+public class BinaryTransactionReader implements TransactionReader {
+
+    private final MappedByteBuffer buffer;
+
+    public BinaryTransactionReader(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+             FileChannel channel = file.getChannel()) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 4 || buffer.getInt() != TransactionFileCompiler.MAGIC) {
+            throw new IOException("Not a compiled transaction file: " + filePath);
+        }
+    }
+
+    @Override
+    public boolean next(TransactionRecord record) {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        record.reset((char) buffer.get());
+        int argCount = buffer.get();
+        for (int i = 0; i < argCount; i++) {
+            record.addArg(buffer.getInt());
+        }
+        if (record.type == 'P') {
+            record.paymentUnscaled = buffer.getLong();
+            record.paymentScale = buffer.get();
+        } else if (record.type == 'N') {
+            int itemCount = buffer.getInt();
+            for (int i = 0; i < itemCount; i++) {
+                record.addOrderItem(buffer.getInt(), buffer.getInt(), buffer.getInt());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // The mapping is released when the buffer is garbage collected.
+    }
+}
@@ -0,0 +1,212 @@
+package wholesale;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the output of one client to {@code output/<client>.txt}. The client thread only puts
+ * the strings in a single-producer single-consumer ring; one background writer thread per process
+ * drains the rings of all clients, encodes them and writes them to the files in large blocks.
+ *
+ * A client finding its ring full waits for the writer, so a slow disk slows the clients down
+ * rather than growing the heap. The waits are logged when the client closes its output.
+ */
+public final class BufferedFileOutput implements TransactionOutput {
+
+    private static final int WRITE_BUFFER_BYTES = 1 << 18;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final List<BufferedFileOutput> OUTPUTS = new CopyOnWriteArrayList<>();
+    private static volatile Thread writer;
+
+    private final int client;
+    private final String[] texts;
+    private final boolean[] newlines;
+    private final int mask;
+    // Next entry read by the writer, next entry written by the client.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean closed;
+    private volatile boolean failed;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private long fullWaits;
+
+    // Used by the writer thread only.
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * @param entries strings the ring holds, rounded up to a power of two
+     */
+    public BufferedFileOutput(int client, int entries) {
+        this.client = client;
+        int capacity = Integer.highestOneBit(Math.max(2, entries - 1)) << 1;
+        this.texts = new String[capacity];
+        this.newlines = new boolean[capacity];
+        this.mask = capacity - 1;
+        File directory = new File(Constants.OUTPUT_DIR);
+        directory.mkdirs();
+        try {
+            this.channel = FileChannel.open(new File(directory, client + ".txt").toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the output file of client " + client, e);
+        }
+        OUTPUTS.add(this);
+        startWriter();
+    }
+
+    private static synchronized void startWriter() {
+        if (writer == null) {
+            writer = new Thread(BufferedFileOutput::writeAll, BufferedFileOutput.class.getSimpleName());
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    @Override
+    public void print(String text) {
+        offer(text, false);
+    }
+
+    @Override
+    public void println(String line) {
+        offer(line, true);
+    }
+
+    private void offer(String text, boolean newline) {
+        long position = tail.get();
+        while (position - head.get() > mask) {
+            if (failed) {
+                return;
+            }
+            fullWaits++;
+            // The writer may be idle, parked until its next pass.
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        int slot = (int) position & mask;
+        texts[slot] = text;
+        newlines[slot] = newline;
+        // Publishes the entry to the writer.
+        tail.lazySet(position + 1);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (fullWaits > 0) {
+            Util.debugLog(BufferedFileOutput.class.getSimpleName(), String.format("Client %d waited %d times for the writer",
+                client, fullWaits));
+        }
+    }
+
+    /**
+     * Body of the writer thread. Partly filled buffers are written once every ring is empty, so
+     * the files stay current when the clients print little.
+     */
+    private static void writeAll() {
+        while (true) {
+            boolean drained = false;
+            for (BufferedFileOutput output : OUTPUTS) {
+                // Read before draining: once closed is seen, the last entries are visible too.
+                boolean closed = output.closed;
+                drained |= output.drain();
+                if (closed) {
+                    output.finish();
+                }
+            }
+            if (!drained) {
+                for (BufferedFileOutput output : OUTPUTS) {
+                    output.flush();
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Encodes the pending entries into the write buffer, and returns whether there were any.
+     */
+    private boolean drain() {
+        long position = head.get();
+        long end = tail.get();
+        if (position == end) {
+            return false;
+        }
+        for (; position < end; position++) {
+            int slot = (int) position & mask;
+            encode(texts[slot]);
+            if (newlines[slot]) {
+                encode(LINE_SEPARATOR);
+            }
+            texts[slot] = null;
+            // Hands the slot back to the client.
+            head.lazySet(position + 1);
+        }
+        return true;
+    }
+
+    private void encode(String text) {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            flush();
+        }
+        encoder.reset();
+    }
+
+    private void flush() {
+        if (failed || buffer.position() == 0) {
+            buffer.clear();
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            // The client keeps running, its output is lost from here on.
+            failed = true;
+            Util.debugLog(BufferedFileOutput.class.getSimpleName(), String.format("Cannot write the output of client %d: %s",
+                client, e));
+        }
+        buffer.clear();
+    }
+
+    private void finish() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Util.debugLog(BufferedFileOutput.class.getSimpleName(), String.format("Cannot close the output of client %d: %s",
+                client, e));
+        }
+        OUTPUTS.remove(this);
+        finished.countDown();
+    }
+}
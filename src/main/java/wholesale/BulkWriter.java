@@ -0,0 +1,161 @@
+package wholesale;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchableStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.Statement;
+
+/**
+ * Asynchronous writer used by the {@link DataLoader}. Statements are grouped by partition key
+ * and sent as single-partition UNLOGGED batches, so every batch is applied by one replica set
+ * without coordinator fan-out. The number of requests in flight is bounded by a semaphore that
+ * can be shared by several writers.
+ *
+ * A failed batch is sent again after a backoff, see {@link Config#LOADER_MAX_ATTEMPTS}, and
+ * keeps its in-flight permit meanwhile. The rows of a batch that still fails are counted by
+ * {@link #getRowsFailed}.
+ *
+ * A writer is fed by a single loader thread; completions run on driver threads.
+ */
+public class BulkWriter implements AutoCloseable {
+
+    // Sends the batches whose backoff is over, for every writer.
+    private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-writer-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CqlSession session;
+    private final String name;
+    private final Semaphore inFlight;
+    private final int batchSize;
+    private final int maxBufferedStatements;
+    private final RetryPolicy retryPolicy = new RetryPolicy(Config.LOADER_MAX_ATTEMPTS, Config.LOADER_BASE_BACKOFF_MILLIS,
+            Config.LOADER_MAX_BACKOFF_MILLIS);
+
+    private final Map<Object, List<BatchableStatement<?>>> pendingByPartition = new HashMap<>();
+    private int bufferedStatements = 0;
+
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+    private int outstandingRequests = 0;
+    private final long startNanos = System.nanoTime();
+
+    public BulkWriter(CqlSession session, String name, Semaphore inFlight, int batchSize) {
+        this.session = session;
+        this.name = name;
+        this.inFlight = inFlight;
+        this.batchSize = batchSize;
+        this.maxBufferedStatements = batchSize * 64;
+    }
+
+    /**
+     * Queues a statement writing to the partition identified by {@code partitionKey}. Keys only
+     * need to be equal for statements of the same partition.
+     */
+    public void add(Object partitionKey, BatchableStatement<?> statement) {
+        List<BatchableStatement<?>> pending = pendingByPartition.get(partitionKey);
+        if (pending == null) {
+            pending = new ArrayList<>(batchSize);
+            pendingByPartition.put(partitionKey, pending);
+        }
+        pending.add(statement);
+        ++bufferedStatements;
+        if (pending.size() >= batchSize) {
+            pendingByPartition.remove(partitionKey);
+            bufferedStatements -= pending.size();
+            submit(pending);
+        } else if (bufferedStatements >= maxBufferedStatements) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends every partially filled batch.
+     */
+    public void flush() {
+        for (List<BatchableStatement<?>> pending : pendingByPartition.values()) {
+            submit(pending);
+        }
+        pendingByPartition.clear();
+        bufferedStatements = 0;
+    }
+
+    /**
+     * Flushes, waits for every request of this writer and logs the load rate.
+     */
+    @Override
+    public void close() {
+        flush();
+        synchronized (this) {
+            while (outstandingRequests > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        double secs = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        Util.debugLog(BulkWriter.class.getSimpleName(), String.format("%s: wrote %d rows in %.1fs (%.0f rows/s), %d failed",
+                name, rowsWritten.get(), secs, secs > 0 ? rowsWritten.get() / secs : 0, rowsFailed.get()));
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    private void submit(List<BatchableStatement<?>> statements) {
+        Statement<?> request = statements.size() == 1
+            ? statements.get(0)
+            : BatchStatement.newInstance(DefaultBatchType.UNLOGGED, statements);
+        inFlight.acquireUninterruptibly();
+        synchronized (this) {
+            ++outstandingRequests;
+        }
+        execute(request, statements.size(), 1);
+    }
+
+    private void execute(Statement<?> request, int rows, int attempt) {
+        session.executeAsync(request).whenComplete((result, error) -> {
+            // Every statement of the loader writes plain values, so running it twice is harmless.
+            if (error != null && retryPolicy.shouldRetry(RetryPolicy.classify(error, true), attempt)) {
+                RETRIES.schedule(() -> execute(request, rows, attempt + 1), retryPolicy.backoffNanos(attempt),
+                        TimeUnit.NANOSECONDS);
+                return;
+            }
+            if (error != null) {
+                rowsFailed.addAndGet(rows);
+                Util.debugLog(BulkWriter.class.getSimpleName(), String.format("%s: dropped %d rows after %d attempts: %s",
+                        name, rows, attempt, error.getMessage()));
+            } else {
+                long written = rowsWritten.addAndGet(rows);
+                if (written / Config.LOADER_PROGRESS_ROWS != (written - rows) / Config.LOADER_PROGRESS_ROWS) {
+                    Util.debugLog(BulkWriter.class.getSimpleName(), String.format("%s: wrote %d rows", name, written));
+                }
+            }
+            inFlight.release();
+            synchronized (this) {
+                --outstandingRequests;
+                notifyAll();
+            }
+        });
+    }
+}
@@ -8,17 +8,21 @@ public class ClientThread implements Callable<Measurement> {
     private int index;
     private String filePath;
     private CqlSession session;
+    private LatencyRecorder latencyRecorder;
     private TransactionHandler transactionHandler;
-    public ClientThread(int index, CqlSession session){
+    public ClientThread(int index, CqlSession session, LatencyRecorder latencyRecorder){
         this.index = index;
         this.session = session;
-        this.filePath = String.format("%s/%d.txt", Constants.TRANSACTION_DIR, index);
+        this.latencyRecorder = latencyRecorder;
+        this.filePath = String.format("%s/%d.txt", Constants.TRANSACTION_DIR, index % Config.TRANSACTION_FILE_COUNT);
     }
     @Override()
     public Measurement call() {
-        this.transactionHandler = new TransactionHandler(session, index, filePath);
-        Measurement m = this.transactionHandler.processTransactions();
-        m.index = this.index;
-        return m;
+        try (TransactionOutput out = TransactionOutput.create(index)) {
+            this.transactionHandler = new TransactionHandler(session, out, index, filePath, latencyRecorder);
+            Measurement m = this.transactionHandler.processTransactions();
+            m.index = this.index;
+            return m;
+        }
     }
 }
@@ -0,0 +1,131 @@
+package wholesale;
+
+/**
+ * Runtime switches for the benchmark client. Every value can be overridden with a
+ * {@code -Dwholesale.<name>=<value>} JVM option.
+ */
+final class Config {
+
+    private Config() {
+
+    }
+
+    // Fire the reads of a NewOrder concurrently instead of one after another.
+    public static final boolean NEW_ORDER_ASYNC = getBoolean("newOrder.async", true);
+
+    // Order ids leased per district at a time by OrderIdAllocator, 0 reads D_NEXT_O_ID and writes it back with every order.
+    public static final int NEW_ORDER_ID_BLOCK_SIZE = getInt("newOrder.idBlockSize", 10);
+
+    // Items read by one IN query of a Stock Level transaction, 0 reads them one at a time.
+    public static final int STOCK_LEVEL_CHUNK_SIZE = getInt("stockLevel.chunkSize", 100);
+
+    // Bulk load the item table into the process-wide catalog before the clients start.
+    public static final boolean ITEM_CATALOG_PRELOAD = getBoolean("itemCatalog.preload", true);
+    // Upper bound on the item ids kept in memory by the catalog.
+    public static final int ITEM_CATALOG_MAX_ITEMS = getInt("itemCatalog.maxItems", 1_000_000);
+
+    // Number of client threads started by each wholesale.Main process.
+    public static final int CLIENTS_PER_SERVER = getInt("clientsPerServer", 8);
+    // Number of wholesale.Main processes taking part in the run; node numbers go from 1 to this value.
+    public static final int SERVER_COUNT = getInt("servers", 5);
+    // Number of transaction files; client i replays file (i mod transactionFiles).
+    public static final int TRANSACTION_FILE_COUNT = getInt("transactionFiles", 40);
+    // How client threads are run: fixed, workStealing or virtual.
+    public static final String CLIENT_EXECUTOR = getString("executor", "fixed");
+    // Worker threads of the fixed and work-stealing executors. Defaults to one per client.
+    public static final int CLIENT_EXECUTOR_THREADS = getInt("executor.threads", CLIENTS_PER_SERVER);
+
+    // Replay transactions/<n>.bin, written by wholesale.TransactionFileCompiler, when it exists.
+    public static final boolean TRANSACTION_BINARY = getBoolean("transactions.binary", true);
+
+    // closed: a client sends its next transaction when the previous one finishes.
+    // open: a client sends transactions at load.rate per second, see ArrivalSchedule.
+    public static final String LOAD_MODE = getString("load.mode", "closed");
+    // Target transactions per second of each client in open-loop mode.
+    public static final double LOAD_RATE = getDouble("load.rate", 10);
+    // Inter-arrival times in open-loop mode: fixed or poisson.
+    public static final String LOAD_ARRIVALS = getString("load.arrivals", "fixed");
+
+    // Seconds between two live metrics reports in metrics/live_<n>.jsonl; 0 disables them.
+    public static final int METRICS_INTERVAL_SECONDS = getInt("metrics.interval", 5);
+
+    // Attempts per transaction, including the first one.
+    public static final int RETRY_MAX_ATTEMPTS = getInt("retry.maxAttempts", 5);
+    // Backoff ceiling of the first retry; it doubles with every further attempt.
+    public static final long RETRY_BASE_BACKOFF_MILLIS = getLong("retry.baseBackoffMs", 5);
+    // Largest backoff between two attempts.
+    public static final long RETRY_MAX_BACKOFF_MILLIS = getLong("retry.maxBackoffMs", 1000);
+
+    // Answer Related Customer from the in-process RelatedCustomerIndex instead of scanning every order.
+    // Off by default: the index misses the orders placed by other nodes.
+    public static final boolean RELATED_CUSTOMER_INDEX = getBoolean("relatedCustomer.index", false);
+
+    // Without the index, stream the order table by token range rather than reading it whole.
+    public static final boolean RELATED_CUSTOMER_STREAM = getBoolean("relatedCustomer.stream", true);
+
+    // Token ranges a full table scan is split into, see TokenRangeScanner.
+    public static final int SCAN_SPLITS = getInt("scan.splits", 64);
+    // Token ranges read at the same time by one scan.
+    public static final int SCAN_CONCURRENCY = getInt("scan.concurrency", 8);
+    // Rows per page of a token range scan.
+    public static final int SCAN_PAGE_SIZE = getInt("scan.pageSize", 1000);
+
+    // Find the orders to deliver in the undelivered_order queue instead of filtering order_carrier.
+    public static final boolean DELIVERY_QUEUE = getBoolean("delivery.queue", true);
+    // How old a queued order must be for the range delete behind a delivered order to remove it.
+    public static final long DELIVERY_QUEUE_DELETE_LAG_MILLIS = getLong("delivery.queueDeleteLagMs", 10000);
+    // Write every district of a Delivery in its own LOGGED batch, all in parallel, instead of one batch.
+    public static final boolean DELIVERY_SPLIT_BATCH = getBoolean("delivery.splitBatch", false);
+
+    // Recent orders kept per district for Popular Items and Stock Level, 0 always reads the order view.
+    public static final int ORDER_WINDOW_SIZE = getInt("orderWindow.size", 64);
+
+    // Answer Top Balance from the in-process TopBalanceLeaderboard instead of the customer_balance view.
+    public static final boolean TOP_BALANCE_LEADERBOARD = getBoolean("topBalance.leaderboard", false);
+    // Customers kept per warehouse by the leaderboard.
+    public static final int TOP_BALANCE_DEPTH = getInt("topBalance.depth", 64);
+    // Seconds between two rescans of the customer table by the leaderboard, 0 never rescans.
+    public static final int TOP_BALANCE_RECONCILE_SECONDS = getInt("topBalance.reconcileSeconds", 60);
+    // Create the customer_balance materialized view during setup.
+    public static final boolean TOP_BALANCE_VIEW = getBoolean("topBalance.view", true);
+
+    // Where the clients print their transaction output: console, file, digest or null.
+    public static final String OUTPUT_MODE = getString("output.mode", "console");
+    // Strings a client can print ahead of the background writer in file mode.
+    public static final int OUTPUT_BUFFER_ENTRIES = getInt("output.bufferEntries", 4096);
+
+    // Data files loaded concurrently by wholesale.Setup load.
+    public static final int LOADER_THREADS = getInt("loader.threads", 4);
+    // Write requests the loader keeps in flight, across all files.
+    public static final int LOADER_MAX_IN_FLIGHT = getInt("loader.maxInFlight", 256);
+    // Rows per single-partition UNLOGGED batch written by the loader.
+    public static final int LOADER_BATCH_SIZE = getInt("loader.batchSize", 50);
+    // Attempts per loader batch, including the first one.
+    public static final int LOADER_MAX_ATTEMPTS = getInt("loader.maxAttempts", 5);
+    // Backoff ceiling before the first retry of a loader batch, doubling with each attempt.
+    public static final long LOADER_BASE_BACKOFF_MILLIS = getLong("loader.baseBackoffMs", 100);
+    // Largest backoff between two attempts of a loader batch.
+    public static final long LOADER_MAX_BACKOFF_MILLIS = getLong("loader.maxBackoffMs", 5000);
+    // Rows between two loader progress log lines.
+    public static final int LOADER_PROGRESS_ROWS = getInt("loader.progressRows", 10000);
+
+    static String getString(String name, String defaultValue) {
+        return System.getProperty("wholesale." + name, defaultValue);
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(name, String.valueOf(defaultValue)));
+    }
+
+    static int getInt(String name, int defaultValue) {
+        return Integer.parseInt(getString(name, String.valueOf(defaultValue)));
+    }
+
+    static long getLong(String name, long defaultValue) {
+        return Long.parseLong(getString(name, String.valueOf(defaultValue)));
+    }
+
+    static double getDouble(String name, double defaultValue) {
+        return Double.parseDouble(getString(name, String.valueOf(defaultValue)));
+    }
+}
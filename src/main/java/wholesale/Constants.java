@@ -23,6 +23,7 @@ final class Constants {
         String STOCK = "stock";
         String ITEM = "item";
         String ORDER_MAT_VIEW = "order_table_mat_view";
+        String UNDELIVERED_ORDER = "undelivered_order";
     }
 
     public static interface Address {
@@ -112,5 +113,6 @@ final class Constants {
 
     public static final String METRICS_DIR = "metrics";
     public static final String TRANSACTION_DIR = "transactions";
+    public static final String OUTPUT_DIR = "output";
 
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Reads the fields of one line of the stock and order data files in place. Numbers are parsed
+ * straight from the characters of the line, only text columns are copied out as strings.
+ *
+ * The order lines of order.csv are a JSON array of flat objects stored in a CSV field, with its
+ * quotes either doubled or left as is. {@link #nextOrderLines()} walks that array without a JSON
+ * library and fills {@link OrderLines}, which is reused from line to line.
+ *
+ * An instance is reused for every line of a file and must only be used by one thread.
+ */
+public final class CsvLineTokenizer {
+
+    private final OrderLines orderLines = new OrderLines();
+
+    private String line;
+    private int pos;
+
+    public CsvLineTokenizer reset(String line) {
+        this.line = line;
+        this.pos = 0;
+        return this;
+    }
+
+    public boolean hasNext() {
+        return pos <= line.length();
+    }
+
+    public int nextInt() {
+        int end = fieldEnd();
+        int value = TextTransactionReader.parseInt(line, pos, end);
+        advance(end);
+        return value;
+    }
+
+    /**
+     * Returns null for an empty field or the literal {@code null}.
+     */
+    public Integer nextNullableInt() {
+        int end = fieldEnd();
+        Integer value = isNull(pos, end) ? null : TextTransactionReader.parseInt(line, pos, end);
+        advance(end);
+        return value;
+    }
+
+    public BigDecimal nextDecimal() {
+        int end = fieldEnd();
+        BigDecimal value = parseDecimal(pos, end);
+        advance(end);
+        return value;
+    }
+
+    /**
+     * Parses a {@link TimestampCodec} timestamp in place. The tokenizer moves past the field
+     * even when it cannot be parsed.
+     */
+    public long nextTimestamp() throws ParseException {
+        int start = pos;
+        int end = fieldEnd();
+        advance(end);
+        if (start < end && line.charAt(start) == '"') {
+            return TimestampCodec.parse(line, start + 1, end - 1);
+        }
+        return TimestampCodec.parse(line, start, end);
+    }
+
+    /**
+     * Parses the delivery date of the order lines read last, see {@link OrderLines#delivered}.
+     */
+    public long deliveryDate() throws ParseException {
+        return TimestampCodec.parse(line, orderLines.deliveryDateStart, orderLines.deliveryDateEnd);
+    }
+
+    public String nextString() {
+        int end = fieldEnd();
+        String value;
+        if (pos < end && line.charAt(pos) == '"') {
+            value = line.substring(pos + 1, end - 1).replace("\"\"", "\"");
+        } else {
+            value = line.substring(pos, end);
+        }
+        advance(end);
+        return value;
+    }
+
+    /**
+     * Parses the JSON array of order lines that follows the current position and moves past the
+     * field holding it. Fields in between that hold no objects, such as a list of item ids, are
+     * skipped, the item ids being taken from the order lines themselves.
+     */
+    public OrderLines nextOrderLines() {
+        orderLines.count = 0;
+        orderLines.delivered = false;
+        int firstObject = line.indexOf('{', pos);
+        if (firstObject < 0) {
+            pos = line.length() + 1;
+            return orderLines;
+        }
+        int i = line.indexOf('[', pos);
+        i = i >= 0 && i < firstObject ? i + 1 : firstObject;
+        while (true) {
+            i = skipBlanks(i);
+            if (i >= line.length() || line.charAt(i) == ']') {
+                break;
+            }
+            if (line.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            i = parseOrderLine(i);
+        }
+        // Move past the closing quotes of the field and its separator.
+        i = skipBlanks(i + 1);
+        pos = i < line.length() && line.charAt(i) == ',' ? i + 1 : line.length() + 1;
+        return orderLines;
+    }
+
+    /**
+     * Parses the object starting at {@code i} into the next order line, returns the index after it.
+     */
+    private int parseOrderLine(int i) {
+        int index = orderLines.add();
+        i = line.indexOf('{', i) + 1;
+        while (true) {
+            i = skipBlanks(i);
+            char c = line.charAt(i);
+            if (c == '}') {
+                return i + 1;
+            }
+            if (c == ',') {
+                i++;
+                continue;
+            }
+            int keyStart = i;
+            int keyEnd = line.indexOf('"', keyStart);
+            i = skipBlanks(keyEnd);
+            // Skip the colon.
+            i = skipSpaces(i + 1);
+            int valueStart;
+            int valueEnd;
+            if (line.charAt(i) == '"') {
+                i = skipQuotes(i);
+                valueStart = i;
+                valueEnd = line.indexOf('"', i);
+                i = skipQuotes(valueEnd);
+            } else {
+                valueStart = i;
+                while (i < line.length() && line.charAt(i) != ',' && line.charAt(i) != '}' && line.charAt(i) != ' ') {
+                    i++;
+                }
+                valueEnd = i;
+            }
+            setField(index, keyStart, keyEnd, valueStart, valueEnd);
+        }
+    }
+
+    private void setField(int index, int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if (isNull(valueStart, valueEnd)) {
+            return;
+        }
+        if (isKey(keyStart, keyEnd, "ol_number")) {
+            orderLines.number[index] = TextTransactionReader.parseInt(line, valueStart, valueEnd);
+        } else if (isKey(keyStart, keyEnd, "ol_i_id")) {
+            orderLines.itemId[index] = TextTransactionReader.parseInt(line, valueStart, valueEnd);
+        } else if (isKey(keyStart, keyEnd, "ol_supply_w_id")) {
+            orderLines.supplyWarehouseId[index] = TextTransactionReader.parseInt(line, valueStart, valueEnd);
+        } else if (isKey(keyStart, keyEnd, "ol_amount")) {
+            orderLines.amount[index] = parseDecimal(valueStart, valueEnd);
+        } else if (isKey(keyStart, keyEnd, "ol_quantity")) {
+            orderLines.quantity[index] = parseDecimal(valueStart, valueEnd);
+        } else if (isKey(keyStart, keyEnd, "ol_delivery_d") && !orderLines.delivered) {
+            orderLines.delivered = true;
+            orderLines.deliveryDateStart = valueStart;
+            orderLines.deliveryDateEnd = valueEnd;
+        }
+    }
+
+    private boolean isKey(int start, int end, String key) {
+        return end - start == key.length() && line.regionMatches(true, start, key, 0, key.length());
+    }
+
+    private boolean isNull(int start, int end) {
+        return start == end || (end - start == 4 && line.regionMatches(true, start, "null", 0, 4));
+    }
+
+    private BigDecimal parseDecimal(int start, int end) {
+        boolean negative = line.charAt(start) == '-';
+        long unscaled = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9' || unscaled > Long.MAX_VALUE / 10) {
+                // Exponents and very long values.
+                return new BigDecimal(line.substring(start, end));
+            }
+            unscaled = unscaled * 10 + (c - '0');
+            if (fraction) {
+                scale++;
+            }
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    /**
+     * End of the field at the current position; a quoted field keeps its quotes.
+     */
+    private int fieldEnd() {
+        if (pos < line.length() && line.charAt(pos) == '"') {
+            int i = pos + 1;
+            while (i < line.length()) {
+                if (line.charAt(i) == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        i += 2;
+                        continue;
+                    }
+                    return i + 1;
+                }
+                i++;
+            }
+            return line.length();
+        }
+        int end = line.indexOf(',', pos);
+        return end < 0 ? line.length() : end;
+    }
+
+    private void advance(int fieldEnd) {
+        pos = fieldEnd + 1;
+    }
+
+    private int skipBlanks(int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '"')) {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < line.length() && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipQuotes(int i) {
+        while (i < line.length() && line.charAt(i) == '"') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Order lines of one order, as parallel arrays of {@link #count} entries.
+     */
+    public static final class OrderLines {
+
+        public int count;
+        public int[] number = new int[16];
+        public int[] itemId = new int[16];
+        public int[] supplyWarehouseId = new int[16];
+        public BigDecimal[] amount = new BigDecimal[16];
+        public BigDecimal[] quantity = new BigDecimal[16];
+        // Whether a line has a delivery date. The date of the first one is read with
+        // CsvLineTokenizer.deliveryDate(), without copying it out of the line.
+        public boolean delivered;
+        private int deliveryDateStart;
+        private int deliveryDateEnd;
+
+        private int add() {
+            if (count == number.length) {
+                int capacity = count * 2;
+                number = Arrays.copyOf(number, capacity);
+                itemId = Arrays.copyOf(itemId, capacity);
+                supplyWarehouseId = Arrays.copyOf(supplyWarehouseId, capacity);
+                amount = Arrays.copyOf(amount, capacity);
+                quantity = Arrays.copyOf(quantity, capacity);
+            }
+            number[count] = count + 1;
+            itemId[count] = 0;
+            supplyWarehouseId[count] = 0;
+            amount[count] = BigDecimal.ZERO;
+            quantity[count] = BigDecimal.ZERO;
+            return count++;
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package wholesale;
 
 import com.datastax.oss.driver.api.core.CqlSession;
-import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
-import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.BoundStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.data.UdtValue;
 import com.datastax.oss.driver.api.core.type.UserDefinedType;
@@ -13,8 +12,10 @@ import wholesale.Constants.Udt;
 
 import java.math.BigDecimal;
 import java.text.ParseException;
-
-import static wholesale.Util.DATE_FORMAT;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class DataLoader {
 
@@ -26,18 +27,21 @@ public class DataLoader {
     private PreparedStatement insertCustomerStmt;
     private PreparedStatement insertDistrictStmt;
     private PreparedStatement insertWarehouseStmt;
+    private PreparedStatement updateDistrictNextOrderIdStmt;
+    private PreparedStatement[] updateDistrictYtdStmts;
     private PreparedStatement insertCustomerOrderStatsStmt;
     private PreparedStatement insertItemsStmt;
-  /*  private PreparedStatement insertOrderStmt;
-    private PreparedStatement insertStocksStmt;*/
+    private PreparedStatement insertOrderStmt;
+    private PreparedStatement insertOrderCarrierStmt;
+    private PreparedStatement insertUndeliveredOrderStmt;
+    private PreparedStatement insertStocksStmt;
 
     private UserDefinedType addressUdt;
     private UserDefinedType customerNameUdt;
     private UserDefinedType orderLineUdt;
 
-    private BatchStatementBuilder insertCustomerStatementBatch = new BatchStatementBuilder(DefaultBatchType.UNLOGGED);
-    private BatchStatementBuilder insertCustomerOrderStatsBatch = new BatchStatementBuilder(DefaultBatchType.UNLOGGED);
-    private int insertCustomerLineCount = 0;
+    // Files are loaded by several threads at once, each needs its own parser state.
+    private static final ThreadLocal<CsvLineTokenizer> TOKENIZERS = ThreadLocal.withInitial(CsvLineTokenizer::new);
 
     public static DataLoader getInstance(CqlSession session, String keyspace) {
         if (INSTANCE == null) {
@@ -46,42 +50,38 @@ public class DataLoader {
         return INSTANCE;
     }
     
-    public void insertCustomer(String line) {
+    public void insertCustomer(String line, BulkWriter writer) {
         String[] values = line.split(",");
         
         try {
-            insertCustomerStatementBatch.addStatement(insertCustomerStmt.boundStatementBuilder()
-                .setInt("w_id", Integer.parseInt(values[0]))
-                .setInt("d_id", Integer.parseInt(values[1]))
-                .setInt("c_id", Integer.parseInt(values[2]))
-                .setUdtValue("name", getCustomerName(values[3], values[4], values[5]))
+            int warehouseId = Integer.parseInt(values[0]);
+            int districtId = Integer.parseInt(values[1]);
+            int customerId = Integer.parseInt(values[2]);
+            UdtValue customerName = getCustomerName(values[3], values[4], values[5]);
+            writer.add(Arrays.asList(TableName.CUSTOMER_DATA, warehouseId, districtId), insertCustomerStmt.boundStatementBuilder()
+                .setInt("w_id", warehouseId)
+                .setInt("d_id", districtId)
+                .setInt("c_id", customerId)
+                .setUdtValue("name", customerName)
                 .setUdtValue("address", getAddress(values[6], values[7], values[8], values[9], values[10]))
                 .setString("phone", values[11])
-                .setInstant("since", DATE_FORMAT.parse(values[12]).toInstant())
+                .setInstant("since", Instant.ofEpochMilli(TimestampCodec.parse(values[12])))
                 .setString("credit", values[13])
                 .setBigDecimal("lim", new BigDecimal(values[14]))
                 .setBigDecimal("dis", new BigDecimal(values[15]))
                 .setString("data", values[20]).build());
 
-            insertCustomerOrderStatsBatch.addStatement(insertCustomerOrderStatsStmt.boundStatementBuilder()
-                .setInt("w_id", Integer.parseInt(values[0]))
-                .setInt("d_id", Integer.parseInt(values[1]))
-                .setInt("c_id", Integer.parseInt(values[2]))
-                .setUdtValue("name", getCustomerName(values[3], values[4], values[5]))
+            writer.add(Arrays.asList(TableName.CUSTOMER_ORDER_STATS, warehouseId), insertCustomerOrderStatsStmt.boundStatementBuilder()
+                .setInt("w_id", warehouseId)
+                .setInt("d_id", districtId)
+                .setInt("c_id", customerId)
+                .setUdtValue("name", customerName)
                 .setBigDecimal("bal", new BigDecimal(values[16]))
                 .setFloat("ytd", Float.parseFloat(values[17]))
                 .setInt("p_cnt", Integer.parseInt(values[18]))
                 .setInt("d_cnt", Integer.parseInt(values[19]))
                 .build()
             );
-            ++insertCustomerLineCount;
-
-            if (insertCustomerLineCount % 3000 == 0) {
-                session.execute(insertCustomerStatementBatch.build());
-                insertCustomerStatementBatch.clearStatements();
-                session.execute(insertCustomerOrderStatsBatch.build());
-                insertCustomerOrderStatsBatch.clearStatements();
-            }
         } catch (ParseException e) {
             //TODO: Add log
             System.out.println(e.getLocalizedMessage());
@@ -89,40 +89,136 @@ public class DataLoader {
         
     }
 
-    public void insertCustomerDistrict(String line) {
+    public void insertCustomerDistrict(String line, BulkWriter writer) {
         String[] values = line.split(",");
-        session.execute(insertDistrictStmt.boundStatementBuilder()
+        int warehouseId = Integer.parseInt(values[0]);
+        int districtId = Integer.parseInt(values[1]);
+        writer.add(Arrays.asList(TableName.CUSTOMER_DATA, warehouseId, districtId), insertDistrictStmt.boundStatementBuilder()
             .setString("name", values[2])
             .setUdtValue("address", getAddress(values[3], values[4], values[5], values[6], values[7]))
             .setBigDecimal("tax", new BigDecimal(values[8]))
-            .setInt("o_id", Integer.parseInt(values[10]))
-            .setInt("w_id", Integer.parseInt(values[0]))
-            .setInt("d_id", Integer.parseInt(values[1]))
+            .setInt("w_id", warehouseId)
+            .setInt("d_id", districtId)
             .build());
-        
-        session.execute(String.format("UPDATE %s SET D_%s_YTD = %s WHERE W_ID = %s", TableName.CUSTOMER_ORDER_STATS, values[1], new BigDecimal(values[9]), values[0]));
+
+        writer.add(Arrays.asList(TableName.CUSTOMER_ORDER_STATS, warehouseId),
+            updateDistrictYtdStmts[districtId - 1].bind(new BigDecimal(values[9]), warehouseId));
+
+        writer.add(Arrays.asList(TableName.ORDER, warehouseId, districtId),
+            updateDistrictNextOrderIdStmt.bind(Integer.parseInt(values[10]), warehouseId, districtId));
     }
 
-    public void insertCustomerWarehouse(String line) {
+    public void insertCustomerWarehouse(String line, BulkWriter writer) {
         String[] values = line.split(",");
+        int warehouseId = Integer.parseInt(values[0]);
+        UdtValue address = getAddress(values[2], values[3], values[4], values[5], values[6]);
+        BigDecimal tax = new BigDecimal(values[7]);
+        // Warehouse columns are static columns repeated in the partition of every district.
         for (int i = 1; i <= Constants.NUM_DISTRICTS; i += 1) {
-            session.execute(insertWarehouseStmt.boundStatementBuilder()
+            writer.add(Arrays.asList(TableName.CUSTOMER_DATA, warehouseId, i), insertWarehouseStmt.boundStatementBuilder()
                 .setString("name", values[1])
-                .setUdtValue("address", getAddress(values[2], values[3], values[4], values[5], values[6]))
-                .setBigDecimal("tax", new BigDecimal(values[7]))
-                .setInt("w_id", Integer.parseInt(values[0]))
+                .setUdtValue("address", address)
+                .setBigDecimal("tax", tax)
+                .setInt("w_id", warehouseId)
                 .setInt("d_id", i)
                 .build());
         }
     }
 
-    public void insertItem(String line) {
+    public void insertItem(String line, BulkWriter writer) {
         String[] values = line.split(",");
 
         BoundStatement insertData = insertItemsStmt.bind(1 , Integer.parseInt(values[0]),
                 values[1], BigDecimal.valueOf(Double.parseDouble(values[2])),  Integer.parseInt(values[3]) , values[4]);
 
-        session.execute(insertData);
+        writer.add(TableName.ITEM, insertData);
+    }
+
+    public void insertStock(String line, BulkWriter writer) {
+        CsvLineTokenizer tokenizer = TOKENIZERS.get().reset(line);
+        int warehouseId = tokenizer.nextInt();
+        BoundStatementBuilder insertData = insertStocksStmt.boundStatementBuilder()
+            .setInt("S_W_ID", warehouseId)
+            .setInt("S_I_ID", tokenizer.nextInt())
+            .setInt("S_QUANTITY", tokenizer.nextInt())
+            .setBigDecimal("S_YTD", tokenizer.nextDecimal())
+            .setInt("S_ORDER_CNT", tokenizer.nextInt())
+            .setInt("S_REMOTE_CNT", tokenizer.nextInt());
+        for (int i = 1; i <= Constants.NUM_DISTRICTS; i++) {
+            insertData.setString("S_DIST_" + i, tokenizer.nextString());
+        }
+        insertData.setString("S_DATA", tokenizer.nextString());
+
+        writer.add(Arrays.asList(TableName.STOCK, warehouseId), insertData.build());
+    }
+
+    /**
+     * Writes one order to order_table and order_carrier, and to undelivered_order when it has no
+     * carrier yet. The order lines are the last field of the
+     * line, a JSON array parsed by {@link CsvLineTokenizer#nextOrderLines()}.
+     */
+    public void insertOrder(String line, BulkWriter writer) {
+        CsvLineTokenizer tokenizer = TOKENIZERS.get().reset(line);
+        try {
+            int warehouseId = tokenizer.nextInt();
+            int districtId = tokenizer.nextInt();
+            int orderId = tokenizer.nextInt();
+            int customerId = tokenizer.nextInt();
+            Integer carrierId = tokenizer.nextNullableInt();
+            BigDecimal orderLineCount = tokenizer.nextDecimal();
+            BigDecimal allLocal = tokenizer.nextDecimal();
+            Instant entryDate = Instant.ofEpochMilli(tokenizer.nextTimestamp());
+            CsvLineTokenizer.OrderLines orderLines = tokenizer.nextOrderLines();
+
+            List<UdtValue> udtOrderLines = new ArrayList<>(orderLines.count);
+            List<Integer> itemIds = new ArrayList<>(orderLines.count);
+            BigDecimal totalAmount = BigDecimal.ZERO;
+            int totalQuantity = 0;
+            for (int i = 0; i < orderLines.count; i++) {
+                udtOrderLines.add(orderLineUdt.newValue()
+                    .setInt("OL_NUMBER", orderLines.number[i])
+                    .setInt("OL_I_ID", orderLines.itemId[i])
+                    .setBigDecimal("OL_AMOUNT", orderLines.amount[i])
+                    .setInt("OL_SUPPLY_W_ID", orderLines.supplyWarehouseId[i])
+                    .setBigDecimal("OL_QUANTITY", orderLines.quantity[i]));
+                itemIds.add(orderLines.itemId[i]);
+                totalAmount = totalAmount.add(orderLines.amount[i]);
+                totalQuantity += orderLines.quantity[i].intValue();
+            }
+
+            writer.add(Arrays.asList(TableName.ORDER, warehouseId, districtId), insertOrderStmt.boundStatementBuilder()
+                .setInt("w_id", warehouseId)
+                .setInt("d_id", districtId)
+                .setInt("o_id", orderId)
+                .setInt("c_id", customerId)
+                .setBigDecimal("ol_cnt", orderLineCount)
+                .setBigDecimal("all_local", allLocal)
+                .setInstant("entry_d", entryDate)
+                .setInt("quantity", totalQuantity)
+                .setList("item_ids", itemIds, Integer.class)
+                .setList("order_lines", udtOrderLines, UdtValue.class)
+                .build());
+
+            // Undelivered orders have carrier -1, which is what Delivery looks for. The delivery
+            // date stays unset rather than writing a tombstone.
+            BoundStatementBuilder insertCarrier = insertOrderCarrierStmt.boundStatementBuilder()
+                .setInt("w_id", warehouseId)
+                .setInt("d_id", districtId)
+                .setInt("o_id", orderId)
+                .setInt("c_id", customerId)
+                .setInt("carrier_id", carrierId != null ? carrierId : -1)
+                .setBigDecimal("amount", totalAmount);
+            if (orderLines.delivered) {
+                insertCarrier.setInstant("deli_date", Instant.ofEpochMilli(tokenizer.deliveryDate()));
+            }
+            writer.add(Arrays.asList(TableName.ORDER_CARRIER, warehouseId), insertCarrier.build());
+            if (carrierId == null) {
+                writer.add(Arrays.asList(TableName.UNDELIVERED_ORDER, warehouseId, districtId), insertUndeliveredOrderStmt.bind(
+                    warehouseId, districtId, orderId, customerId, totalAmount));
+            }
+        } catch (ParseException | RuntimeException e) {
+            System.out.println(e.getLocalizedMessage());
+        }
     }
 
     private DataLoader(CqlSession session, String keyspace) {
@@ -137,21 +233,30 @@ public class DataLoader {
         String itemTableName = String.format("%s.%s", keyspace, TableName.ITEM);
 
         insertCustomerStmt = session.prepare(
-            "INSERT INTO " + customerDataTableName + " (W_ID, D_ID, C_ID, C_NAME, C_ADDRESS, C_PHONE, C_SINCE, C_CREDIT, C_CREDIT_LIM," + 
+            "INSERT INTO " + customerDataTableName + " (C_W_ID, C_D_ID, C_ID, C_NAME, C_ADDRESS, C_PHONE, C_SINCE, C_CREDIT, C_CREDIT_LIM," + 
             " C_DISCOUNT, C_DATA) values (:w_id, :d_id, :c_id, :name, :address, :phone, :since, :credit, :lim, :dis, :data)"
         );
 
         insertDistrictStmt = session.prepare(
-            "UPDATE " + customerDataTableName + " SET D_NAME = :name, D_ADDRESS = :address, D_TAX = :tax, D_NEXT_O_ID = :o_id where W_ID = :w_id and D_ID = :d_id"
+            "UPDATE " + customerDataTableName + " SET D_NAME = :name, D_ADDRESS = :address, D_TAX = :tax where C_W_ID = :w_id and C_D_ID = :d_id"
+        );
+
+        updateDistrictNextOrderIdStmt = session.prepare(
+            "UPDATE " + String.format("%s.%s", keyspace, TableName.ORDER) + " SET D_NEXT_O_ID = ? where O_W_ID = ? and O_D_ID = ?"
         );
 
-        insertWarehouseStmt = session.prepare(String.format(
-            "UPDATE " + customerDataTableName + " SET W_NAME = :name, W_ADDRESS = :address, W_TAX =: tax where W_ID = :w_id and D_ID = :d_id"
-            )
+        updateDistrictYtdStmts = new PreparedStatement[Constants.NUM_DISTRICTS];
+        for (int i = 1; i <= Constants.NUM_DISTRICTS; i++) {
+            updateDistrictYtdStmts[i - 1] = session.prepare(String.format("UPDATE %s.%s SET D_%d_YTD = ? WHERE C_W_ID = ?",
+                keyspace, TableName.CUSTOMER_ORDER_STATS, i));
+        }
+
+        insertWarehouseStmt = session.prepare(
+            "UPDATE " + customerDataTableName + " SET W_NAME = :name, W_ADDRESS = :address, W_TAX = :tax where C_W_ID = :w_id and C_D_ID = :d_id"
         );
 
         insertCustomerOrderStatsStmt = session.prepare(
-            "INSERT INTO " + String.format("%s.%s", keyspace, TableName.CUSTOMER_ORDER_STATS) + " (W_ID, D_ID, C_ID, C_NAME, C_BALANCE, C_YTD_PAYMENT, C_PAYMENT_CNT, C_DELIVERY_CNT) " + 
+            "INSERT INTO " + String.format("%s.%s", keyspace, TableName.CUSTOMER_ORDER_STATS) + " (C_W_ID, C_D_ID, C_ID, C_NAME, C_BALANCE, C_YTD_PAYMENT, C_PAYMENT_CNT, C_DELIVERY_CNT) " + 
             "values (:w_id, :d_id, :c_id, :name, :bal, :ytd, :p_cnt, :d_cnt)"
         );
 
@@ -161,7 +266,8 @@ public class DataLoader {
                         + "VALUES (:I , :I_ID , :I_NAME, :I_PRICE , :I_IM_ID, :I_DATA)"
         );
 
-       /* String orderTableName = String.format("%s.%s" , keyspace , TableName.ORDER);
+        String orderTableName = String.format("%s.%s" , keyspace , TableName.ORDER);
+        String orderCarrierTableName = String.format("%s.%s" , keyspace , TableName.ORDER_CARRIER);
         String stockTableName = String.format("%s.%s", keyspace, TableName.STOCK);
         insertStocksStmt = session.prepare(
                 "INSERT INTO " + stockTableName + " (S_W_ID , S_I_ID , S_QUANTITY , S_YTD , S_ORDER_CNT , " +
@@ -169,10 +275,14 @@ public class DataLoader {
                 + "VALUES (:S_W_ID, :S_I_ID, :S_QUANTITY , :S_YTD, :S_ORDER_CNT , :S_REMOTE_CNT, :S_DIST_1, :S_DIST_2 , :S_DIST_3 , :S_DIST_4, " +
                 ":S_DIST_5, :S_DIST_6 , :S_DIST_7, :S_DIST_8, :S_DIST_9 , :S_DIST_10 , :S_DATA)"
         );
-        insertOrderStmt = session.prepare("INSERT INTO " + orderTableName + " (O_W_ID , O_D_ID, O_ID, O_C_ID, O_CARRIER_ID , " +
-                "O_OL_CNT , O_ALL_LOCAL, O_ENTRY_D , TOTAL_AMOUNT, ITEM_IDS , ORDER_LINES )"
-                + "VALUES (:O_W_ID , :O_D_ID, :O_ID, :O_C_ID, :O_CARRIER_ID ," +
-                ":O_OL_CNT , :O_ALL_LOCAL, :O_ENTRY_D , :TOTAL_AMOUNT , :ITEM_IDS ,:ORDER_LINES)");*/
+        insertOrderStmt = session.prepare("INSERT INTO " + orderTableName + " (O_W_ID , O_D_ID, O_ID, O_C_ID, " +
+                "O_OL_CNT , O_ALL_LOCAL, O_ENTRY_D , TOTAL_OL_QUANTITY, ITEM_IDS , ORDER_LINES )"
+                + "VALUES (:w_id , :d_id, :o_id, :c_id, :ol_cnt , :all_local, :entry_d , :quantity , :item_ids , :order_lines)");
+        insertOrderCarrierStmt = session.prepare("INSERT INTO " + orderCarrierTableName + " (O_W_ID , O_D_ID, O_ID, O_C_ID, " +
+                "O_CARRIER_ID , TOTAL_AMOUNT, OL_DELIVERY_D)"
+                + "VALUES (:w_id , :d_id, :o_id, :c_id, :carrier_id , :amount, :deli_date)");
+        insertUndeliveredOrderStmt = session.prepare("INSERT INTO " + String.format("%s.%s", keyspace, TableName.UNDELIVERED_ORDER)
+                + " (O_W_ID, O_D_ID, O_ID, O_C_ID, TOTAL_AMOUNT) VALUES (?, ?, ?, ?, ?)");
     }
 
     private void getUserDefinedTypes() {
@@ -199,56 +309,4 @@ public class DataLoader {
             .setString("MIDDLE_NAME", middleName)
             .setString("LAST_NAME", lastName);
     }
-
-     /*public void insertStock(String line){
-        String[] values = line.split(",");
-
-        BoundStatement insertData = insertStocksStmt.bind(Integer.parseInt(values[0]),
-                Integer.parseInt(values[1]), Integer.parseInt(values[2]) , BigDecimal.valueOf(Double.parseDouble(values[3])) ,
-                Integer.parseInt(values[4]) , Integer.parseInt(values[5]) , values[6] , values[7] , values[8] , values[9],
-                values[10] , values[11] , values[12] , values[13] , values[14] , values[15] , values[16]);
-
-        session.execute(insertData);
-    }*/
-
-    /*public void insertOrder(String line) {
-        try {
-            String[] values = line.split("\",");
-            List<UdtValue> udtOrderlines = new ArrayList<UdtValue>();
-            List<Integer> itemIDs = new ArrayList<>();
-            BigDecimal totalAmount = new BigDecimal(0);
-            String temp_data = values[1].replaceAll("\"", "");
-
-            //This build the ITEM_IDs list and the udt orderlines list
-            JSONArray jsonArray = new JSONArray(temp_data);
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject jsonObj = jsonArray.getJSONObject(i);
-                udtOrderlines.add(getOrderLineUDTFromJSON(jsonObj));
-                itemIDs.add(jsonObj.getInt("ol_i_id"));
-                totalAmount = totalAmount.add(BigDecimal.valueOf(jsonObj.getDouble("ol_amount")));
-            }
-
-            String[] second_split = values[0].split(",\"");
-            String[] order_values = second_split[0].split(",");
-
-            BoundStatement insertData = insertOrderStmt.bind(Integer.parseInt(order_values[0]),
-                    Integer.parseInt(order_values[1]), Integer.parseInt(order_values[2]), Integer.parseInt(order_values[3]), Integer.parseInt(order_values[4]),
-                    BigDecimal.valueOf(Double.parseDouble(order_values[5])), BigDecimal.valueOf(Double.parseDouble(order_values[6])), DATE_FORMAT.parse(order_values[7]).toInstant(), totalAmount, itemIDs, udtOrderlines);
-
-            session.execute(insertData);
-
-        }catch (JSONException | ParseException e) {
-            System.out.println(e.getLocalizedMessage());
-        }
-    }
-
-     public UdtValue getOrderLineUDTFromJSON(JSONObject jsonObject) throws JSONException {
-        return orderLineUdt.newValue()
-                .setInt("OL_NUMBER", jsonObject.getInt("ol_number"))
-                .setInt("OL_I_ID", jsonObject.getInt("ol_i_id"))
-                .setInstant("OL_DELIVERY_D", null)
-                .setBigDecimal("OL_AMOUNT", BigDecimal.valueOf(jsonObject.getDouble("ol_amount")))
-                .setInt("OL_SUPPLY_W_ID", jsonObject.getInt("ol_supply_w_id"))
-                .setBigDecimal("OL_QUANTITY", BigDecimal.valueOf(jsonObject.getDouble("ol_quantity")));
-    }*/
 }
@@ -9,6 +9,15 @@ import com.datastax.oss.driver.api.querybuilder.schema.CreateTable;
 import wholesale.Constants.*;
 import wholesale.Util.FileLineReader;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
 public final class DatabaseManager {
     
     private CqlSession session;
@@ -45,6 +54,7 @@ public final class DatabaseManager {
     public void createTables() {
         createOrderTable();
         createOrderCarrierTable();
+        createUndeliveredOrderTable();
         createCustomerDataTable();
         createCustomerOrderStatsTable();
         createCustomerBalanceTable();
@@ -121,6 +131,24 @@ public final class DatabaseManager {
         logCreateTableResult(TableName.ORDER_CARRIER, result.wasApplied());
     }
 
+    /**
+     * Queue of the orders not delivered yet, smallest O_ID first in every district partition.
+     * New Order enqueues and Delivery takes the head of the partition, see
+     * {@link DeliveryTransactionHandler}.
+     */
+    public void createUndeliveredOrderTable() {
+        session.execute(SchemaBuilder.dropTable(keyspace, TableName.UNDELIVERED_ORDER).ifExists().build());
+        ResultSet result = session.execute(SchemaBuilder.createTable(keyspace, TableName.UNDELIVERED_ORDER).ifNotExists()
+                .withPartitionKey("O_W_ID", DataTypes.INT)
+                .withPartitionKey("O_D_ID", DataTypes.INT)
+                .withClusteringColumn("O_ID", DataTypes.INT)
+                .withColumn("O_C_ID", DataTypes.INT)
+                .withColumn("TOTAL_AMOUNT", DataTypes.DECIMAL)
+                .withClusteringOrder("O_ID", ClusteringOrder.ASC)
+                .build());
+        logCreateTableResult(TableName.UNDELIVERED_ORDER, result.wasApplied());
+    }
+
     public void createMatViewOrderTable() {
         session.execute(SchemaBuilder.dropMaterializedView(keyspace, TableName.ORDER_MAT_VIEW).ifExists().build());
         ResultSet result = session.execute(SchemaBuilder.createMaterializedView( keyspace, TableName.ORDER_MAT_VIEW).ifNotExists()
@@ -193,6 +221,9 @@ public final class DatabaseManager {
 
     public void createCustomerBalanceTable() {
         session.execute(SchemaBuilder.dropMaterializedView(keyspace, TableName.CUSTOMER_BALANCE).ifExists().build()); 
+        if (!Config.TOP_BALANCE_VIEW) {
+            return;
+        }
         ResultSet result = session.execute(SchemaBuilder.createMaterializedView(keyspace, TableName.CUSTOMER_BALANCE)
             .ifNotExists()
             .asSelectFrom(TableName.CUSTOMER_ORDER_STATS)
@@ -252,88 +283,67 @@ public final class DatabaseManager {
 
     public void loadCustomerData() {
         DataLoader dataLoader = DataLoader.getInstance(session, keyspace);
-        Util.readFile(DataFilePath.CUSTOMER, new FileLineReader() {
-
-            int count = 0;
-
-            @Override
-            public void read(String line) {
-                dataLoader.insertCustomer(line);
-                ++count;
-                if (count % 1000 == 0) {
-                    logDataLoadProgress("Customer", count);
-                }
-            }
-        });
-
-        Util.readFile(DataFilePath.DISTRICT, new FileLineReader() {
-
-            int count = 0;
-
-            @Override
-            public void read(String line) {
-                dataLoader.insertCustomerDistrict(line);
-
-                ++count;
-                if (count % 1000 == 0) {
-                    logDataLoadProgress("Customer.District", count);
-                }
+        // Files are loaded in parallel; the writers of all files share one bound on in-flight requests.
+        ExecutorService executor = Executors.newFixedThreadPool(Config.LOADER_THREADS);
+        Semaphore inFlight = new Semaphore(Config.LOADER_MAX_IN_FLIGHT);
+        List<Future<BulkWriter>> results = new ArrayList<>();
+        long startNanos = System.nanoTime();
+
+        results.add(loadFile(executor, inFlight, "Customer", DataFilePath.CUSTOMER, dataLoader::insertCustomer));
+        results.add(loadFile(executor, inFlight, "Customer.District", DataFilePath.DISTRICT, dataLoader::insertCustomerDistrict));
+        results.add(loadFile(executor, inFlight, "Customer.Warehouse", DataFilePath.WAREHOUSE, dataLoader::insertCustomerWarehouse));
+        results.add(loadFile(executor, inFlight, "item", DataFilePath.ITEM, dataLoader::insertItem));
+        results.add(loadFile(executor, inFlight, "stock", DataFilePath.STOCK, dataLoader::insertStock));
+        results.add(loadFile(executor, inFlight, "order", DataFilePath.ORDER, dataLoader::insertOrder));
+
+        long rows = 0;
+        long failedRows = 0;
+        int failedFiles = 0;
+        for (Future<BulkWriter> result : results) {
+            try {
+                BulkWriter writer = result.get();
+                rows += writer.getRowsWritten();
+                failedRows += writer.getRowsFailed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ++failedFiles;
+            } catch (ExecutionException e) {
+                System.err.println(e.getCause().toString());
+                ++failedFiles;
             }
-        });
-
-        Util.readFile(DataFilePath.WAREHOUSE, new FileLineReader() {
-
-            int count = 0;
-
-            @Override
-            public void read(String line) {
-                dataLoader.insertCustomerWarehouse(line);
-
-                ++count;
-                if (count % 1000 == 0) {
-                    logDataLoadProgress("Customer.Warehouse", count);
-                }
-            }
-        });
-
-        Util.readFile(DataFilePath.ITEM, new FileLineReader() {
-            int count = 0;
-            @Override
-            public void read(String line) {
-                dataLoader.insertItem(line);
-
-                ++count;
-                if (count % 1000 == 0) {
-                    logDataLoadProgress("item" , count);
-                }
-            }
-        });
-
-        /*Util.readFile(DataFilePath.STOCK, new FileLineReader() {
-            int count = 0;
-            @Override
-            public void read(String line) {
-                dataLoader.insertStock(line);
+        }
+        executor.shutdown();
+        double secs = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        Util.debugLog(DatabaseManager.class.getSimpleName(), String.format("Loaded %d rows in %.1fs (%.0f rows/s), %d failed",
+                rows, secs, secs > 0 ? rows / secs : 0, failedRows));
+        if (failedRows > 0 || failedFiles > 0) {
+            // The database would not match the data files, so the load must not look successful.
+            throw new IllegalStateException(String.format("Load incomplete: %d rows failed, %d files not fully read",
+                    failedRows, failedFiles));
+        }
+    }
 
-                ++count;
-                if (count % 1000 == 0) {
-                 logDataLoadProgress("stock" , count);
+    private Future<BulkWriter> loadFile(ExecutorService executor, Semaphore inFlight, String table, String filePath,
+            BiConsumer<String, BulkWriter> insert) {
+        return executor.submit(() -> {
+            BulkWriter writer = new BulkWriter(session, table, inFlight, Config.LOADER_BATCH_SIZE);
+            Util.readFile(filePath, new FileLineReader() {
+
+                int count = 0;
+
+                @Override
+                public void read(String line) {
+                    insert.accept(line, writer);
+                    ++count;
+                    if (count % Config.LOADER_PROGRESS_ROWS == 0) {
+                        logDataLoadProgress(table, count);
+                    }
                 }
-            }
+            });
+            // Waits for the last batches, so the table is complete once the future returns.
+            writer.close();
+            return writer;
         });
-
-        Util.readFile(DataFilePath.ORDER, new FileLineReader() {
-            int count = 0;
-            @Override
-            public void read(String line) {
-                dataLoader.insertOrder(line);
-
-                ++count;
-                if (count % 1000 == 0) {
-                    logDataLoadProgress("order" , count);
-                }
-            }
-        });*/
     }
 
     private static DatabaseManager getInstance(CqlSession session, String keyspaceName) {
@@ -7,106 +7,172 @@ import java.io.PrintWriter;
 import java.math.BigDecimal;
 
 import com.datastax.oss.driver.api.core.CqlSession;
-import com.datastax.oss.driver.api.core.cql.PreparedStatement;
-import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
 
+/**
+ * Writes the end-of-run database state to {@code metrics/dbState.csv}. Each table is read once by
+ * a {@link TokenRangeScanner}, so warehouses and districts are whatever the data holds. Static
+ * columns are added once per partition; a partition never spans two token ranges.
+ */
 public class DbState {
- 
+
     public static void main(String[] args) {
         try (CqlSession session = CqlSession.builder().build();) {
 
-            session.execute("USE wholesale_supplier");
-
-            BigDecimal c_balance_sum = new BigDecimal(0);
-            BigDecimal c_ytd_payment_sum = new BigDecimal(0);
-            long c_payment_cnt_sum = 0;
-            long c_delivery_cnt_sum = 0;
-
-            BigDecimal ol_amount_sum = new BigDecimal(0);
-
-            BigDecimal d_ytd_sum = new BigDecimal(0);
-            
-            for (int w = 1 ; w <= 10; w++) {
-                ResultSet result;
-                Row row;
-                result = session.execute("SELECT D_1_YTD, D_2_YTD, D_3_YTD, D_4_YTD, D_5_YTD, D_6_YTD, D_7_YTD, D_8_YTD, D_9_YTD, D_10_YTD, SUM(C_BALANCE) as C_BALANCE_SUM, SUM(C_YTD_PAYMENT) as C_YTD_PAYMENT_SUM, SUM(C_PAYMENT_CNT) as C_PAYMENT_CNT_SUM, SUM(C_DELIVERY_CNT) AS C_DELIVERY_CNT_SUM FROM customer_order_stats where c_w_id = " + w);
-                row = result.one();
-                c_balance_sum = c_balance_sum.add(row.getBigDecimal("C_BALANCE_SUM"));
-                c_ytd_payment_sum = c_ytd_payment_sum.add(new BigDecimal(row.getFloat("C_YTD_PAYMENT_SUM")));
-                c_payment_cnt_sum += row.getInt("C_PAYMENT_CNT_SUM");
-                c_delivery_cnt_sum += row.getInt("C_DELIVERY_CNT_SUM");
-
-                for (int d = 1; d <= 10; d++) {
-                    d_ytd_sum = d_ytd_sum.add(row.getBigDecimal("D_" + d +"_YTD"));
-                }
+            session.execute("USE " + Constants.KEYSPACE_NAME);
+            long startNanos = System.nanoTime();
 
-                result = session.execute("SELECT SUM(TOTAL_AMOUNT) as OL_AMOUNT_TOTAL FROM order_carrier where o_w_id = " + w);
-                row = result.one();
-                ol_amount_sum = ol_amount_sum.add(row.getBigDecimal("OL_AMOUNT_TOTAL"));
+            CustomerTotals customers = new CustomerTotals();
+            for (CustomerTotals range : new TokenRangeScanner(session, "customer_order_stats", "C_W_ID",
+                    "C_W_ID, D_1_YTD, D_2_YTD, D_3_YTD, D_4_YTD, D_5_YTD, D_6_YTD, D_7_YTD, D_8_YTD, D_9_YTD, D_10_YTD, "
+                    + "C_BALANCE, C_YTD_PAYMENT, C_PAYMENT_CNT, C_DELIVERY_CNT")
+                    .scan(CustomerTotals::new, CustomerTotals::add)) {
+                customers.merge(range);
             }
-            
-            BigDecimal w_ytd = new BigDecimal(0).add(d_ytd_sum);
-
-
-            BigDecimal count = new BigDecimal(0);
-            long quantity = 0;
-            int maxOid = Integer.MIN_VALUE;
-            long nextOid = 0;
-            for(int i=1;i<=10;i++) {
-                for(int j=1;j<=10;j++) {
-                    Row row = session.execute(String.format("select max(o_id) as o_id, sum(o_ol_cnt) as o_ol_cnt, sum(total_ol_quantity) as total_ol_quantity from order_table where o_w_id = %d and o_d_id = %d;",i,j)).one();
-                    count = count.add(row.getBigDecimal("o_ol_cnt"));
-                    quantity+=row.getInt("total_ol_quantity");
-                    maxOid = Math.max(maxOid, row.getInt("o_id"));
-                }
+
+            OrderTotals orders = new OrderTotals();
+            for (OrderTotals range : new TokenRangeScanner(session, "order_table", "O_W_ID, O_D_ID",
+                    "O_W_ID, O_D_ID, O_ID, D_NEXT_O_ID, O_OL_CNT, TOTAL_OL_QUANTITY")
+                    .scan(OrderTotals::new, OrderTotals::add)) {
+                orders.merge(range);
             }
-            for(int a=1;a<=10;a++) {
-                Row row = session.execute(String.format("select sum(d_next_o_id) as d_next_o_id from order_table where o_w_id = 1 and o_d_id = %d limit 1;", a)).one();
-                nextOid +=row.getInt("d_next_o_id");
+
+            BigDecimal ol_amount_sum = BigDecimal.ZERO;
+            for (BigDecimal[] range : new TokenRangeScanner(session, "order_carrier", "O_W_ID", "TOTAL_AMOUNT")
+                    .scan(() -> new BigDecimal[] {BigDecimal.ZERO}, (sum, row) -> sum[0] = add(sum[0], row.getBigDecimal("TOTAL_AMOUNT")))) {
+                ol_amount_sum = ol_amount_sum.add(range[0]);
             }
 
-            long s_quantity = 0;
-            BigDecimal s_ytd = new BigDecimal(0);
-            long order_cnt = 0;
-            long remote_cnt = 0;
-
-            String sum_of_stock = "select sum(S_QUANTITY) as \"sum(s_quantity)\" , sum(S_YTD) as \"sum(s_ytd)\", sum(S_ORDER_CNT) as \"sum(s_order_cnt)\" , sum(S_REMOTE_CNT) as \"sum(s_remote_cnt)\" from stock WHERE S_W_ID = ?; ";
-            PreparedStatement stockSum = session.prepare(sum_of_stock);
-
-            for (int i= 1; i <=10 ; i++){
-            ResultSet res = session.execute(stockSum.bind(i));
-            Row result = res.one();
-            s_quantity = s_quantity + result.getInt("sum(s_quantity)");
-            s_ytd = s_ytd.add(result.getBigDecimal("sum(s_ytd)"));
-            order_cnt = order_cnt + result.getInt("sum(s_order_cnt)");
-            remote_cnt = remote_cnt + result.getInt("sum(s_remote_cnt)");
+            StockTotals stock = new StockTotals();
+            for (StockTotals range : new TokenRangeScanner(session, "stock", "S_W_ID",
+                    "S_QUANTITY, S_YTD, S_ORDER_CNT, S_REMOTE_CNT")
+                    .scan(StockTotals::new, StockTotals::add)) {
+                stock.merge(range);
             }
 
+            BigDecimal w_ytd = new BigDecimal(0).add(customers.d_ytd_sum);
+
             String dbStateString = new StringBuilder()
                 .append(w_ytd.toString()).append(System.lineSeparator())
-                .append(d_ytd_sum.toString()).append(System.lineSeparator())
-                .append(nextOid).append(System.lineSeparator())
-                .append(c_balance_sum.toString()).append(System.lineSeparator())
-                .append(c_ytd_payment_sum.toString()).append(System.lineSeparator())
-                .append(c_payment_cnt_sum).append(System.lineSeparator())
-                .append(c_delivery_cnt_sum).append(System.lineSeparator())
-                .append(maxOid).append(System.lineSeparator())
-                .append(count.toString()).append(System.lineSeparator())
+                .append(customers.d_ytd_sum.toString()).append(System.lineSeparator())
+                .append(orders.nextOid).append(System.lineSeparator())
+                .append(customers.c_balance_sum.toString()).append(System.lineSeparator())
+                .append(new BigDecimal(customers.c_ytd_payment_sum).toString()).append(System.lineSeparator())
+                .append(customers.c_payment_cnt_sum).append(System.lineSeparator())
+                .append(customers.c_delivery_cnt_sum).append(System.lineSeparator())
+                .append(orders.maxOid).append(System.lineSeparator())
+                .append(orders.count.toString()).append(System.lineSeparator())
                 .append(ol_amount_sum.toString()).append(System.lineSeparator())
-                .append(quantity).append(System.lineSeparator())
-                .append(s_quantity).append(System.lineSeparator())
-                .append(s_ytd.toString()).append(System.lineSeparator())
-                .append(order_cnt).append(System.lineSeparator())
-                .append(remote_cnt).append(System.lineSeparator())
+                .append(orders.quantity).append(System.lineSeparator())
+                .append(stock.s_quantity).append(System.lineSeparator())
+                .append(stock.s_ytd.toString()).append(System.lineSeparator())
+                .append(stock.order_cnt).append(System.lineSeparator())
+                .append(stock.remote_cnt).append(System.lineSeparator())
                 .toString();
 
+            Util.debugLog(DbState.class.getSimpleName(), String.format("Scanned %d warehouses and %d districts in %.1fs",
+                customers.warehouses, orders.districts, (System.nanoTime() - startNanos) / 1_000_000_000.0));
+
             try(PrintWriter dbStateWriter = new PrintWriter(new FileWriter(new File(Constants.METRICS_DIR, "dbState.csv")))) {
                 dbStateWriter.println(dbStateString);
             } catch (IOException ignore) {
-                
+
             }
         }
     }
-}
 
+    private static BigDecimal add(BigDecimal sum, BigDecimal value) {
+        return value == null ? sum : sum.add(value);
+    }
+
+    private static final class CustomerTotals {
+        BigDecimal c_balance_sum = BigDecimal.ZERO;
+        double c_ytd_payment_sum = 0;
+        long c_payment_cnt_sum = 0;
+        long c_delivery_cnt_sum = 0;
+        BigDecimal d_ytd_sum = BigDecimal.ZERO;
+        int warehouses = 0;
+        private int lastWarehouse = -1;
+
+        void add(Row row) {
+            int warehouse = row.getInt("C_W_ID");
+            if (warehouse != lastWarehouse) {
+                lastWarehouse = warehouse;
+                warehouses++;
+                for (int d = 1; d <= Constants.NUM_DISTRICTS; d++) {
+                    d_ytd_sum = DbState.add(d_ytd_sum, row.getBigDecimal("D_" + d + "_YTD"));
+                }
+            }
+            c_balance_sum = DbState.add(c_balance_sum, row.getBigDecimal("C_BALANCE"));
+            c_ytd_payment_sum += row.getFloat("C_YTD_PAYMENT");
+            c_payment_cnt_sum += row.getInt("C_PAYMENT_CNT");
+            c_delivery_cnt_sum += row.getInt("C_DELIVERY_CNT");
+        }
+
+        void merge(CustomerTotals other) {
+            c_balance_sum = c_balance_sum.add(other.c_balance_sum);
+            c_ytd_payment_sum += other.c_ytd_payment_sum;
+            c_payment_cnt_sum += other.c_payment_cnt_sum;
+            c_delivery_cnt_sum += other.c_delivery_cnt_sum;
+            d_ytd_sum = d_ytd_sum.add(other.d_ytd_sum);
+            warehouses += other.warehouses;
+        }
+    }
+
+    private static final class OrderTotals {
+        BigDecimal count = BigDecimal.ZERO;
+        long quantity = 0;
+        int maxOid = Integer.MIN_VALUE;
+        long nextOid = 0;
+        int districts = 0;
+        private int lastWarehouse = -1;
+        private int lastDistrict = -1;
+
+        void add(Row row) {
+            int warehouse = row.getInt("O_W_ID");
+            int district = row.getInt("O_D_ID");
+            if (warehouse != lastWarehouse || district != lastDistrict) {
+                lastWarehouse = warehouse;
+                lastDistrict = district;
+                districts++;
+                nextOid += row.getInt("D_NEXT_O_ID");
+            }
+            // A district without orders only has its static row.
+            if (row.isNull("O_ID")) {
+                return;
+            }
+            count = DbState.add(count, row.getBigDecimal("O_OL_CNT"));
+            quantity += row.getInt("TOTAL_OL_QUANTITY");
+            maxOid = Math.max(maxOid, row.getInt("O_ID"));
+        }
+
+        void merge(OrderTotals other) {
+            count = count.add(other.count);
+            quantity += other.quantity;
+            maxOid = Math.max(maxOid, other.maxOid);
+            nextOid += other.nextOid;
+            districts += other.districts;
+        }
+    }
+
+    private static final class StockTotals {
+        long s_quantity = 0;
+        BigDecimal s_ytd = BigDecimal.ZERO;
+        long order_cnt = 0;
+        long remote_cnt = 0;
+
+        void add(Row row) {
+            s_quantity += row.getInt("S_QUANTITY");
+            s_ytd = DbState.add(s_ytd, row.getBigDecimal("S_YTD"));
+            order_cnt += row.getInt("S_ORDER_CNT");
+            remote_cnt += row.getInt("S_REMOTE_CNT");
+        }
+
+        void merge(StockTotals other) {
+            s_quantity += other.s_quantity;
+            s_ytd = s_ytd.add(other.s_ytd);
+            order_cnt += other.order_cnt;
+            remote_cnt += other.remote_cnt;
+        }
+    }
+}
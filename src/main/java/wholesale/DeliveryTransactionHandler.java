@@ -1,12 +1,16 @@
 package wholesale;
 
+import java.math.BigDecimal;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
@@ -19,53 +23,105 @@ import wholesale.Constants.Order;
 import wholesale.Constants.TableName;
 
 public class DeliveryTransactionHandler {
-    
+
+    /**
+     * Outcome of one Delivery.
+     */
+    public enum Result {
+        // Every district with an undelivered order was delivered.
+        DELIVERED,
+        // Some districts were delivered and some were skipped; the skipped ones keep their order
+        // for the next Delivery.
+        PARTIAL,
+        // Nothing was applied.
+        NOT_APPLIED
+    }
+
     private CqlSession session;
+    private TopBalanceLeaderboard leaderboard;
+
+    private static final List<Integer> DISTRICT_IDS = new ArrayList<>();
+    static {
+        for (int i = 1; i <= Constants.NUM_DISTRICTS; i++) {
+            DISTRICT_IDS.add(i);
+        }
+    }
+
+    private final boolean useQueue;
+    private final boolean splitBatch;
 
     private PreparedStatement selectSmallestUndeliveredOrdersPrepared;
+    private PreparedStatement selectQueueHeadPrepared;
+    private PreparedStatement dequeueOrderPrepared;
+    private PreparedStatement deleteQueueBelowPrepared;
     private PreparedStatement selectCustomerOrderStatsPrepared;
     private PreparedStatement updateOrderDeliveryStatusPrepared;
     private PreparedStatement updateCustomerPaymentPrepared;
 
     public DeliveryTransactionHandler(CqlSession session) {
+        this(session, Config.DELIVERY_QUEUE, Config.DELIVERY_SPLIT_BATCH);
+    }
+
+    /**
+     * @param useQueue take the oldest undelivered orders from the undelivered_order queue instead
+     * of filtering order_carrier
+     * @param splitBatch write every district in its own batch, all batches in parallel
+     */
+    public DeliveryTransactionHandler(CqlSession session, boolean useQueue, boolean splitBatch) {
         this.session = session;
+        this.useQueue = useQueue;
+        this.splitBatch = splitBatch;
+        if (Config.TOP_BALANCE_LEADERBOARD) {
+            this.leaderboard = TopBalanceLeaderboard.getInstance(session);
+        }
         createPreparedStatements();
     }
 
-    public boolean execute(int warehouseId, int carrierId) {
+    public Result execute(int warehouseId, int carrierId) {
         Date deliveryDate = new Date();
         ResultSet result;
 
         HashMap<Map.Entry<Integer, Integer>, Map.Entry<Row, Row>> customerOrderBalanceMap = new HashMap<>();
 
-        result = session.execute(selectSmallestUndeliveredOrdersPrepared.boundStatementBuilder()
-                .setInt("w_id", warehouseId)
-                .setInt("carrier_id", -1)
-                .build());
-
-        List<Row> orderList = result.all();
+        List<Row> orderList;
+        if (useQueue) {
+            orderList = oldestQueuedOrders(warehouseId);
+        } else {
+            orderList = session.execute(selectSmallestUndeliveredOrdersPrepared.boundStatementBuilder()
+                    .setInt("w_id", warehouseId)
+                    .setInt("carrier_id", -1)
+                    .build()).all();
+        }
+        // The customers of all districts are read concurrently.
+        List<CompletionStage<AsyncResultSet>> customerStages = new ArrayList<>(orderList.size());
         for (Row order: orderList) {
-            int customerId = order.getInt(Order.CUSTOMER_ID);
-            int districtId = order.getInt(Order.DISTRICT_ID);
-
-            ResultSet customerResult = session.execute(selectCustomerOrderStatsPrepared.boundStatementBuilder()
+            customerStages.add(session.executeAsync(selectCustomerOrderStatsPrepared.boundStatementBuilder()
                 .setInt("w_id", warehouseId)
-                .setInt("d_id", districtId)
-                .setInt("c_id", customerId)
+                .setInt("d_id", order.getInt(Order.DISTRICT_ID))
+                .setInt("c_id", order.getInt(Order.CUSTOMER_ID))
                 .build()
-            );
-
-            Row customer = customerResult.one();
-            customerOrderBalanceMap.put(Pair.of(districtId, customerId), Pair.of(order, customer));
+            ));
+        }
+        for (int i = 0; i < orderList.size(); i++) {
+            Row order = orderList.get(i);
+            Row customer = Util.join(customerStages.get(i)).one();
+            customerOrderBalanceMap.put(Pair.of(order.getInt(Order.DISTRICT_ID), order.getInt(Order.CUSTOMER_ID)), Pair.of(order, customer));
         }
 
+        // Microseconds, as Cassandra write timestamps are.
+        long rangeDeleteTimestamp = (deliveryDate.getTime() - Config.DELIVERY_QUEUE_DELETE_LAG_MILLIS) * 1000;
         BatchStatementBuilder districtLevelTransactionBatch = new BatchStatementBuilder(DefaultBatchType.LOGGED);
+        HashMap<Map.Entry<Integer, Integer>, BigDecimal> newBalances = new HashMap<>();
+        HashMap<Map.Entry<Integer, Integer>, CompletionStage<AsyncResultSet>> districtResults = new HashMap<>();
 
         for (Map.Entry<Integer, Integer> id: customerOrderBalanceMap.keySet()) {
             Row order = customerOrderBalanceMap.get(id).getKey();
             Row customerBalance = customerOrderBalanceMap.get(id).getValue();
+            BigDecimal newBalance = customerBalance.getBigDecimal(Customer.BALANCE).add(order.getBigDecimal(Order.TOTAL_AMOUNT));
+            newBalances.put(id, newBalance);
 
-            districtLevelTransactionBatch.addStatement(updateOrderDeliveryStatusPrepared.boundStatementBuilder()
+            BatchStatementBuilder batch = splitBatch ? new BatchStatementBuilder(DefaultBatchType.LOGGED) : districtLevelTransactionBatch;
+            batch.addStatement(updateOrderDeliveryStatusPrepared.boundStatementBuilder()
                 .setInt("carrier_id", carrierId)
                 .setInstant("deli_date", deliveryDate.toInstant())
                 .setInt("w_id", warehouseId)
@@ -73,18 +129,92 @@ public class DeliveryTransactionHandler {
                 .setInt("c_id", order.getInt(Order.CUSTOMER_ID))
                 .setInt("o_id", order.getInt(Order.ORDER_ID))
                 .build());
-            districtLevelTransactionBatch.addStatement(updateCustomerPaymentPrepared.boundStatementBuilder()
-                .setBigDecimal("balance", customerBalance.getBigDecimal(Customer.BALANCE).add(order.getBigDecimal(Order.TOTAL_AMOUNT)))
+            if (useQueue) {
+                batch.addStatement(dequeueOrderPrepared.bind(warehouseId, order.getInt(Order.DISTRICT_ID),
+                    order.getInt(Order.ORDER_ID)));
+                batch.addStatement(deleteQueueBelowPrepared.bind(rangeDeleteTimestamp, warehouseId,
+                    order.getInt(Order.DISTRICT_ID), order.getInt(Order.ORDER_ID)));
+            }
+            batch.addStatement(updateCustomerPaymentPrepared.boundStatementBuilder()
+                .setBigDecimal("balance", newBalance)
                 .setInt("deli_cnt", customerBalance.getInt(Customer.DELIVERY_CNT) + 1)
                 .setInt("w_id", warehouseId)
                 .setInt("d_id", order.getInt(Order.DISTRICT_ID))
                 .setInt("c_id", order.getInt(Order.CUSTOMER_ID))
                 .build()
             );
+            if (splitBatch) {
+                districtResults.put(id, session.executeAsync(batch.build()));
+            }
         }
-        
+
+        if (splitBatch) {
+            // Every district is delivered on its own, one failed district does not undo the others.
+            int delivered = 0;
+            RuntimeException failure = null;
+            for (Map.Entry<Map.Entry<Integer, Integer>, CompletionStage<AsyncResultSet>> district : districtResults.entrySet()) {
+                try {
+                    if (Util.join(district.getValue()).wasApplied()) {
+                        delivered++;
+                        if (leaderboard != null) {
+                            leaderboard.update(warehouseId, district.getKey().getKey(), district.getKey().getValue(),
+                                newBalances.get(district.getKey()));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // A failure whose outcome is unknown is the one the caller must see.
+                    if (failure == null || RetryPolicy.classify(e, false) == RetryPolicy.FailureClass.UNKNOWN_OUTCOME) {
+                        failure = e;
+                    }
+                }
+            }
+            if (delivered == 0 && failure != null) {
+                // No district is known to be delivered, but the outcome is unknown: a LOGGED batch
+                // that timed out may still be applied from the batchlog. The caller's retry policy
+                // decides from the failure.
+                throw failure;
+            }
+            if (delivered == 0 && !districtResults.isEmpty()) {
+                return Result.NOT_APPLIED;
+            }
+            // As in deferred TPC-C delivery, a skipped district keeps its order queued for the next
+            // Delivery. Retrying would deliver a second order in the districts that succeeded.
+            return delivered < districtResults.size() ? Result.PARTIAL : Result.DELIVERED;
+        }
+
         result = session.execute(districtLevelTransactionBatch.build());
-        return result.wasApplied();
+        if (result.wasApplied() && leaderboard != null) {
+            for (Map.Entry<Map.Entry<Integer, Integer>, BigDecimal> balance : newBalances.entrySet()) {
+                leaderboard.update(warehouseId, balance.getKey().getKey(), balance.getKey().getValue(), balance.getValue());
+            }
+        }
+        return result.wasApplied() ? Result.DELIVERED : Result.NOT_APPLIED;
+    }
+
+    /**
+     * Reads the head of the queue of every district, the smallest O_ID still queued. The read has
+     * no lower bound, so an order enqueued late with an O_ID below one already delivered, as with
+     * {@link OrderIdAllocator} blocks filled by several nodes, is still found.
+     * <p>
+     * Besides deleting the row it delivers, Delivery range-deletes every O_ID below it with a
+     * timestamp {@link Config#DELIVERY_QUEUE_DELETE_LAG_MILLIS} in the past. The rows it covers
+     * were all delivered, as any undelivered one would have been the head, so the read meets one
+     * range tombstone instead of a row tombstone per delivered order. A New Order still being
+     * written below the head has a newer timestamp and is not covered.
+     */
+    private List<Row> oldestQueuedOrders(int warehouseId) {
+        List<CompletionStage<AsyncResultSet>> heads = new ArrayList<>(DISTRICT_IDS.size());
+        for (int districtId : DISTRICT_IDS) {
+            heads.add(session.executeAsync(selectQueueHeadPrepared.bind(warehouseId, districtId)));
+        }
+        List<Row> orders = new ArrayList<>(heads.size());
+        for (CompletionStage<AsyncResultSet> head : heads) {
+            Row order = Util.join(head).one();
+            if (order != null) {
+                orders.add(order);
+            }
+        }
+        return orders;
     }
 
     static class Pair {
@@ -102,6 +232,29 @@ public class DeliveryTransactionHandler {
             .allowFiltering()
             .build()
         );
+
+        this.selectQueueHeadPrepared = session.prepare(QueryBuilder.selectFrom(TableName.UNDELIVERED_ORDER)
+            .columns(Order.DISTRICT_ID, Order.ORDER_ID, Order.CUSTOMER_ID, Order.TOTAL_AMOUNT)
+            .whereColumn(Order.WAREHOUSE_ID).isEqualTo(QueryBuilder.bindMarker())
+            .whereColumn(Order.DISTRICT_ID).isEqualTo(QueryBuilder.bindMarker())
+            .limit(1)
+            .build()
+        );
+
+        this.dequeueOrderPrepared = session.prepare(QueryBuilder.deleteFrom(TableName.UNDELIVERED_ORDER)
+            .whereColumn(Order.WAREHOUSE_ID).isEqualTo(QueryBuilder.bindMarker())
+            .whereColumn(Order.DISTRICT_ID).isEqualTo(QueryBuilder.bindMarker())
+            .whereColumn(Order.ORDER_ID).isEqualTo(QueryBuilder.bindMarker())
+            .build()
+        );
+
+        this.deleteQueueBelowPrepared = session.prepare(QueryBuilder.deleteFrom(TableName.UNDELIVERED_ORDER)
+            .usingTimestamp(QueryBuilder.bindMarker())
+            .whereColumn(Order.WAREHOUSE_ID).isEqualTo(QueryBuilder.bindMarker())
+            .whereColumn(Order.DISTRICT_ID).isEqualTo(QueryBuilder.bindMarker())
+            .whereColumn(Order.ORDER_ID).isLessThan(QueryBuilder.bindMarker())
+            .build()
+        );
     
         this.selectCustomerOrderStatsPrepared = session.prepare(QueryBuilder.selectFrom(TableName.CUSTOMER_ORDER_STATS)
             .columns(Customer.BALANCE, Customer.DELIVERY_CNT)
@@ -0,0 +1,45 @@
+package wholesale;
+
+/**
+ * Writes nothing but keeps the number of characters and lines printed by a client and a 64-bit
+ * FNV-1a hash of them, logged when the client finishes. The separator of {@link #println} is
+ * hashed as '\n'.
+ */
+public final class DigestOutput implements TransactionOutput {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int client;
+    private long hash = FNV_OFFSET;
+    private long chars;
+    private long lines;
+
+    public DigestOutput(int client) {
+        this.client = client;
+    }
+
+    @Override
+    public void print(String text) {
+        long h = hash;
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * FNV_PRIME;
+        }
+        hash = h;
+        chars += text.length();
+    }
+
+    @Override
+    public void println(String line) {
+        print(line);
+        hash = (hash ^ '\n') * FNV_PRIME;
+        chars++;
+        lines++;
+    }
+
+    @Override
+    public void close() {
+        Util.debugLog(DigestOutput.class.getSimpleName(), String.format("Client %d printed %d lines, %d chars, digest %016x",
+            client, lines, chars, hash));
+    }
+}
@@ -0,0 +1,195 @@
+package wholesale;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.data.UdtValue;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+
+import wholesale.Constants.OrderLine;
+import wholesale.Constants.TableName;
+
+/**
+ * The most recent orders of every district, shared by every client thread of the process. It is
+ * fed by the {@link NewOrderTransaction}s of this process and backfilled from the order view
+ * when it cannot answer, so Popular Items and Stock Level usually skip the view read.
+ *
+ * Order O_ID of a district is kept in slot {@code O_ID % size} of the district's window. Other
+ * nodes also place orders, and with {@link OrderIdAllocator} the O_IDs of a district are neither
+ * placed in order nor all used, so every read first takes the keys of the requested orders from
+ * the view, without their order lines, and only answers from memory when all of them are present.
+ */
+public final class DistrictOrderWindow {
+
+    private static DistrictOrderWindow INSTANCE;
+
+    private final CqlSession session;
+    private final int size;
+    private final PreparedStatement selectRecentOrderKeys;
+    private final PreparedStatement selectRecentOrders;
+    private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<>();
+
+    public static synchronized DistrictOrderWindow getInstance(CqlSession session) {
+        if (INSTANCE == null) {
+            INSTANCE = new DistrictOrderWindow(session, Config.ORDER_WINDOW_SIZE);
+        }
+        return INSTANCE;
+    }
+
+    private DistrictOrderWindow(CqlSession session, int size) {
+        this.session = session;
+        this.size = size;
+        this.selectRecentOrderKeys = session.prepare(QueryBuilder.selectFrom(TableName.ORDER_MAT_VIEW)
+                .columns("O_ID", "O_C_ID")
+                .whereColumn("O_W_ID").isEqualTo(QueryBuilder.bindMarker())
+                .whereColumn("O_D_ID").isEqualTo(QueryBuilder.bindMarker())
+                .limit(QueryBuilder.bindMarker())
+                .build().setConsistencyLevel(ConsistencyLevel.ONE));
+        this.selectRecentOrders = session.prepare(QueryBuilder.selectFrom(TableName.ORDER_MAT_VIEW)
+                .columns("O_C_ID", "O_ID", "O_ENTRY_D", "ORDER_LINES")
+                .whereColumn("O_W_ID").isEqualTo(QueryBuilder.bindMarker())
+                .whereColumn("O_D_ID").isEqualTo(QueryBuilder.bindMarker())
+                .limit(QueryBuilder.bindMarker())
+                .build().setConsistencyLevel(ConsistencyLevel.ONE));
+    }
+
+    /**
+     * Records an order this process has just placed.
+     */
+    public void addOrder(int warehouseId, int districtId, int orderId, int customerId, long entryDate, int[] itemIds,
+            int[] quantities) {
+        window(warehouseId, districtId).put(orderId, customerId, entryDate, itemIds, quantities);
+    }
+
+    /**
+     * Returns the last {@code count} orders of the district, most recent first.
+     */
+    public Orders recentOrders(int warehouseId, int districtId, int count) {
+        Window window = window(warehouseId, districtId);
+        if (count <= size) {
+            int[] orderIds = new int[count];
+            int[] customerIds = new int[count];
+            int found = 0;
+            for (Row row : session.execute(selectRecentOrderKeys.bind(warehouseId, districtId, count))) {
+                orderIds[found] = row.getInt("O_ID");
+                customerIds[found] = row.getInt("O_C_ID");
+                found++;
+            }
+            Orders orders = window.copy(orderIds, customerIds, found);
+            if (orders != null) {
+                return orders;
+            }
+        }
+
+        // Miss: read the view and keep what it returned for the next transactions.
+        Orders orders = new Orders(count);
+        for (Row row : session.execute(selectRecentOrders.bind(warehouseId, districtId, count))) {
+            List<UdtValue> orderLines = row.getList("ORDER_LINES", UdtValue.class);
+            int[] itemIds = new int[orderLines.size()];
+            int[] quantities = new int[orderLines.size()];
+            for (int i = 0; i < itemIds.length; i++) {
+                itemIds[i] = orderLines.get(i).getInt(OrderLine.ITEM_ID);
+                quantities[i] = orderLines.get(i).getBigDecimal(OrderLine.QUANTITY).intValue();
+            }
+            long entryDate = row.getInstant("O_ENTRY_D").toEpochMilli();
+            orders.add(row.getInt("O_ID"), row.getInt("O_C_ID"), entryDate, itemIds, quantities);
+            window.put(row.getInt("O_ID"), row.getInt("O_C_ID"), entryDate, itemIds, quantities);
+        }
+        return orders;
+    }
+
+    private Window window(int warehouseId, int districtId) {
+        return windows.computeIfAbsent(Util.districtKey(warehouseId, districtId), key -> new Window(size));
+    }
+
+    /**
+     * Orders of one district, most recent first.
+     */
+    public static final class Orders {
+        public int count;
+        public final int[] orderIds;
+        public final int[] customerIds;
+        public final long[] entryDates;
+        public final int[][] itemIds;
+        public final int[][] quantities;
+
+        Orders(int capacity) {
+            orderIds = new int[capacity];
+            customerIds = new int[capacity];
+            entryDates = new long[capacity];
+            itemIds = new int[capacity][];
+            quantities = new int[capacity][];
+        }
+
+        void add(int orderId, int customerId, long entryDate, int[] items, int[] itemQuantities) {
+            orderIds[count] = orderId;
+            customerIds[count] = customerId;
+            entryDates[count] = entryDate;
+            itemIds[count] = items;
+            quantities[count] = itemQuantities;
+            count++;
+        }
+    }
+
+    /**
+     * Ring buffer of one district. Order arrays are never modified once stored, so they are
+     * shared with the copies handed out.
+     */
+    private static final class Window {
+        // 0 for an empty slot, -1 for an O_ID placed twice.
+        final int[] orderIds;
+        final int[] customerIds;
+        final long[] entryDates;
+        final int[][] itemIds;
+        final int[][] quantities;
+
+        Window(int size) {
+            orderIds = new int[size];
+            customerIds = new int[size];
+            entryDates = new long[size];
+            itemIds = new int[size][];
+            quantities = new int[size][];
+        }
+
+        synchronized void put(int orderId, int customerId, long entryDate, int[] items, int[] itemQuantities) {
+            int slot = orderId % orderIds.length;
+            if (orderIds[slot] == orderId) {
+                if (customerIds[slot] != customerId) {
+                    // Two clients took the same O_ID, the view orders them by customer: leave it to the view.
+                    orderIds[slot] = -1;
+                }
+                return;
+            }
+            if (orderIds[slot] > orderId) {
+                // A late backfill row older than what the slot already holds.
+                return;
+            }
+            orderIds[slot] = orderId;
+            customerIds[slot] = customerId;
+            entryDates[slot] = entryDate;
+            itemIds[slot] = items;
+            quantities[slot] = itemQuantities;
+        }
+
+        /**
+         * Returns the first {@code count} orders of {@code keyOrderIds} and {@code keyCustomerIds},
+         * or null if any of them is missing.
+         */
+        synchronized Orders copy(int[] keyOrderIds, int[] keyCustomerIds, int count) {
+            Orders orders = new Orders(count);
+            for (int i = 0; i < count; i++) {
+                int orderId = keyOrderIds[i];
+                int slot = orderId % orderIds.length;
+                if (orderIds[slot] != orderId || customerIds[slot] != keyCustomerIds[i]) {
+                    return null;
+                }
+                orders.add(orderId, customerIds[slot], entryDates[slot], itemIds[slot], quantities[slot]);
+            }
+            return orders;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package wholesale;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from int to int for per-transaction counting, without boxing. Keys must
+ * not be 0. Not thread safe.
+ */
+public final class IntIntMap {
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    public int get(int key, int defaultValue) {
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return keys[find(key)] == key;
+    }
+
+    public void put(int key, int value) {
+        int slot = find(key);
+        if (keys[slot] != key) {
+            if (insert(slot, key)) {
+                slot = find(key);
+            }
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Adds {@code delta} to the value of {@code key}, 0 if absent, and returns the new value.
+     */
+    public int add(int key, int delta) {
+        int slot = find(key);
+        if (keys[slot] != key) {
+            if (insert(slot, key)) {
+                slot = find(key);
+            }
+        }
+        return values[slot] += delta;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, 0);
+            size = 0;
+        }
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Stores {@code key} in the free {@code slot}, and returns true if the table grew meanwhile.
+     */
+    private boolean insert(int slot, int key) {
+        keys[slot] = key;
+        size++;
+        if (size * 2 <= keys.length) {
+            return false;
+        }
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int newSlot = find(oldKeys[i]);
+                keys[newSlot] = oldKeys[i];
+                values[newSlot] = oldValues[i];
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+
+import wholesale.Constants.Item;
+import wholesale.Constants.TableName;
+
+/**
+ * Read-only copy of the item table shared by every client thread of the process.
+ * Entries are stored in an array indexed by I_ID. The catalog is either bulk loaded
+ * once at startup or filled lazily on a miss, growing up to {@link Config#ITEM_CATALOG_MAX_ITEMS}.
+ */
+public final class ItemCatalog {
+
+    private static ItemCatalog INSTANCE;
+
+    private final CqlSession session;
+    private final PreparedStatement selectItem;
+
+    private volatile Entry[] entries = new Entry[0];
+
+    public static final class Entry {
+        public final String name;
+        public final BigDecimal price;
+
+        Entry(String name, BigDecimal price) {
+            this.name = name;
+            this.price = price;
+        }
+    }
+
+    public static synchronized ItemCatalog getInstance(CqlSession session) {
+        if (INSTANCE == null) {
+            INSTANCE = new ItemCatalog(session);
+        }
+        return INSTANCE;
+    }
+
+    private ItemCatalog(CqlSession session) {
+        this.session = session;
+        this.selectItem = session.prepare(QueryBuilder.selectFrom(TableName.ITEM)
+            .columns(Item.NAME, Item.PRICE)
+            .whereColumn("I").isEqualTo(QueryBuilder.literal(1))
+            .whereColumn(Item.ITEM_ID).isEqualTo(QueryBuilder.bindMarker())
+            .build()
+            .setConsistencyLevel(ConsistencyLevel.ONE));
+    }
+
+    /**
+     * Reads the whole item partition page by page and keeps the name and price of every item.
+     */
+    public void load() {
+        int count = 0;
+        for (Row row : session.execute(SimpleStatement.newInstance(
+                "SELECT " + Item.ITEM_ID + ", " + Item.NAME + ", " + Item.PRICE + " FROM " + TableName.ITEM + " WHERE I = 1")
+                .setConsistencyLevel(ConsistencyLevel.ONE))) {
+            put(row.getInt(Item.ITEM_ID), new Entry(row.getString(Item.NAME), row.getBigDecimal(Item.PRICE)));
+            ++count;
+        }
+        Util.debugLog(ItemCatalog.class.getSimpleName(), String.format("Loaded %d items", count));
+    }
+
+    public Entry get(int itemId) {
+        Entry[] current = entries;
+        if (itemId >= 0 && itemId < current.length && current[itemId] != null) {
+            return current[itemId];
+        }
+        Row row = session.execute(selectItem.bind(itemId)).one();
+        if (row == null) {
+            return null;
+        }
+        Entry entry = new Entry(row.getString(Item.NAME), row.getBigDecimal(Item.PRICE));
+        put(itemId, entry);
+        return entry;
+    }
+
+    public String name(int itemId) {
+        Entry entry = get(itemId);
+        return entry == null ? null : entry.name;
+    }
+
+    public BigDecimal price(int itemId) {
+        Entry entry = get(itemId);
+        return entry == null ? null : entry.price;
+    }
+
+    private synchronized void put(int itemId, Entry entry) {
+        if (itemId < 0 || itemId >= Config.ITEM_CATALOG_MAX_ITEMS) {
+            return;
+        }
+        Entry[] current = entries;
+        if (itemId >= current.length) {
+            current = Arrays.copyOf(current, Math.min(Config.ITEM_CATALOG_MAX_ITEMS, Math.max(itemId + 1, current.length * 2)));
+        }
+        current[itemId] = entry;
+        // Republish through the volatile field so readers see the new slot.
+        entries = current;
+    }
+}
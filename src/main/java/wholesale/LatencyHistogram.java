@@ -0,0 +1,184 @@
+package wholesale;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size latency histogram using the HdrHistogram bucket layout: values are grouped in
+ * power-of-two buckets, each split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, which keeps
+ * the relative error of every reported value below 0.4%. Recording never allocates.
+ *
+ * Values are in microseconds. Anything above the highest trackable value is clamped to it.
+ *
+ * A histogram has a single writer, its client thread. Other threads, such as the
+ * {@link MetricsReporter}, may read it at any time without locking.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 8;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+    private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF_COUNT << 1;
+    private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int LEADING_ZERO_COUNT_BASE = 64 - SUB_BUCKET_HALF_COUNT_MAGNITUDE - 1;
+
+    // One hour, in microseconds.
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = 3_600_000_000L;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE);
+    }
+
+    public LatencyHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = highestTrackableValue;
+        int bucketCount = 1;
+        long smallestUntrackableValue = SUB_BUCKET_COUNT;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        this.counts = new AtomicLongArray((bucketCount + 1) * SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * Records one value. Must only be called by the owning thread; the lazy sets below are
+     * not atomic increments.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        int index = countsIndex(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        totalCount.lazySet(totalCount.get() + 1);
+        totalValue.lazySet(totalValue.get() + value);
+        if (value < minValue.get()) {
+            minValue.lazySet(value);
+        }
+        if (value > maxValue.get()) {
+            maxValue.lazySet(value);
+        }
+    }
+
+    /**
+     * Adds the counts of {@code other} to this histogram. {@code other} may be recorded to concurrently.
+     */
+    public void add(LatencyHistogram other) {
+        long added = 0;
+        for (int i = 0; i < counts.length() && i < other.counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.lazySet(i, counts.get(i) + count);
+                added += count;
+            }
+        }
+        totalCount.lazySet(totalCount.get() + added);
+        totalValue.lazySet(totalValue.get() + other.totalValue.get());
+        if (added > 0) {
+            minValue.lazySet(Math.min(minValue.get(), other.minValue.get()));
+            maxValue.lazySet(Math.max(maxValue.get(), other.maxValue.get()));
+        }
+    }
+
+    /**
+     * Replaces this histogram with {@code current - previous}, the values recorded between two
+     * snapshots of the same histogram. Min and max are rounded to their bucket.
+     */
+    public void setToDifference(LatencyHistogram current, LatencyHistogram previous) {
+        reset();
+        long count = 0;
+        int lowest = -1;
+        int highest = -1;
+        for (int i = 0; i < counts.length(); i++) {
+            long delta = current.counts.get(i) - previous.counts.get(i);
+            if (delta > 0) {
+                counts.set(i, delta);
+                count += delta;
+                if (lowest < 0) {
+                    lowest = i;
+                }
+                highest = i;
+            }
+        }
+        totalCount.set(count);
+        totalValue.set(current.totalValue.get() - previous.totalValue.get());
+        if (count > 0) {
+            minValue.set(valueFromIndex(lowest));
+            maxValue.set(Math.min(highestTrackableValue, valueFromIndex(highest + 1) - 1));
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        minValue.set(Long.MAX_VALUE);
+        maxValue.set(0);
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getTotalValue() {
+        return totalValue.get();
+    }
+
+    public long getMinValue() {
+        return totalCount.get() == 0 ? 0 : minValue.get();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long min = minValue.get();
+        long max = maxValue.get();
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= countAtPercentile) {
+                return Math.min(max, Math.max(min, valueFromIndex(i + 1) - 1));
+            }
+        }
+        return max;
+    }
+
+    private static int countsIndex(long value) {
+        int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+    }
+
+    private static long valueFromIndex(int index) {
+        int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+        int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        if (bucketIndex < 0) {
+            subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+            bucketIndex = 0;
+        }
+        return (long) subBucketIndex << bucketIndex;
+    }
+}
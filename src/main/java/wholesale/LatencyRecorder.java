@@ -0,0 +1,97 @@
+package wholesale;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of one client, one per transaction type. Written by the client thread,
+ * read concurrently by the {@link MetricsReporter}.
+ */
+public final class LatencyRecorder {
+
+    public static final String TRANSACTION_TYPES = "NPDOSITR";
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[TRANSACTION_TYPES.length()];
+    // Per type: retried attempts, time spent backing off (us), transactions given up on and
+    // transactions applied to only part of what they cover.
+    private final AtomicLongArray retries = new AtomicLongArray(TRANSACTION_TYPES.length());
+    private final AtomicLongArray backoffMicros = new AtomicLongArray(TRANSACTION_TYPES.length());
+    private final AtomicLongArray failures = new AtomicLongArray(TRANSACTION_TYPES.length());
+    private final AtomicLongArray partials = new AtomicLongArray(TRANSACTION_TYPES.length());
+
+    public LatencyRecorder() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(char type, long latencyMicros) {
+        int index = TRANSACTION_TYPES.indexOf(type);
+        if (index >= 0) {
+            histograms[index].record(latencyMicros);
+        }
+    }
+
+    public void recordRetry(char type, long backoffMicros) {
+        int index = TRANSACTION_TYPES.indexOf(type);
+        if (index >= 0) {
+            retries.lazySet(index, retries.get(index) + 1);
+            this.backoffMicros.lazySet(index, this.backoffMicros.get(index) + backoffMicros);
+        }
+    }
+
+    public void recordFailure(char type) {
+        int index = TRANSACTION_TYPES.indexOf(type);
+        if (index >= 0) {
+            failures.lazySet(index, failures.get(index) + 1);
+        }
+    }
+
+    /**
+     * Counts a transaction that completed for only part of what it covers, such as a Delivery
+     * that skipped some districts. It is also recorded as completed.
+     */
+    public void recordPartial(char type) {
+        int index = TRANSACTION_TYPES.indexOf(type);
+        if (index >= 0) {
+            partials.lazySet(index, partials.get(index) + 1);
+        }
+    }
+
+    public long getRetries(int index) {
+        return retries.get(index);
+    }
+
+    public long getBackoffMicros(int index) {
+        return backoffMicros.get(index);
+    }
+
+    public long getFailures(int index) {
+        return failures.get(index);
+    }
+
+    public long getPartials(int index) {
+        return partials.get(index);
+    }
+
+    public LatencyHistogram get(char type) {
+        return histograms[TRANSACTION_TYPES.indexOf(type)];
+    }
+
+    /**
+     * Histogram of the transaction type at {@code index} in {@link #TRANSACTION_TYPES}.
+     */
+    public LatencyHistogram get(int index) {
+        return histograms[index];
+    }
+
+    /**
+     * Histogram of every transaction type merged together.
+     */
+    public LatencyHistogram total() {
+        LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            total.add(histogram);
+        }
+        return total;
+    }
+}
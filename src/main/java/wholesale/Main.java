@@ -21,28 +21,52 @@ import static wholesale.Constants.KEYSPACE_NAME;
 public class Main {
 
     public static void main(String[] args) {
+        // Checked before connecting, so a bad option fails fast.
+        boolean openLoop = ArrivalSchedule.isOpenLoop();
         try (CqlSession session = CqlSession.builder()
                 .withConfigLoader(DriverConfigLoader.programmaticBuilder()
                     .withString(DefaultDriverOption.REQUEST_CONSISTENCY, "LOCAL_QUORUM")
                     .build())
                 .build();) {
             session.execute(String.format("USE %s", KEYSPACE_NAME));
+            if (Config.ITEM_CATALOG_PRELOAD) {
+                ItemCatalog.getInstance(session).load();
+            }
+            if (Config.RELATED_CUSTOMER_INDEX) {
+                // Built before the clients start, so no new order is both scanned and added.
+                RelatedCustomerIndex.getInstance(session);
+            }
+            if (Config.TOP_BALANCE_LEADERBOARD) {
+                TopBalanceLeaderboard.getInstance(session);
+            }
 
             int serverNum = Integer.parseInt(args[0]);
-            
-            Map<Integer, Future<Measurement>> futureMeasurements = new HashMap<>();
-            ExecutorService executor = Executors.newFixedThreadPool(8);
+            if (serverNum < 1 || serverNum > Config.SERVER_COUNT) {
+                throw new IllegalArgumentException(String.format("node_number must be between 1 and %d", Config.SERVER_COUNT));
+            }
+            int clients = Config.CLIENTS_PER_SERVER;
+
+            Map<Integer, Future<Measurement>> futureMeasurements = new TreeMap<>();
+            ExecutorService executor = createClientExecutor();
 
-            for(int i=((serverNum-1) * 8);i< (serverNum*8);i++){
-                Future<Measurement> future = executor.submit(new ClientThread(i, session));
+            Map<Integer, LatencyRecorder> recorders = new TreeMap<>();
+            for(int i=((serverNum-1) * clients);i< (serverNum*clients);i++){
+                LatencyRecorder recorder = new LatencyRecorder();
+                recorders.put(i, recorder);
+                Future<Measurement> future = executor.submit(new ClientThread(i, session, recorder));
                 futureMeasurements.put(i, future);
             }
+            MetricsReporter reporter = MetricsReporter.start(serverNum, recorders);
 
             double minThroughput = Double.MAX_VALUE;
             double maxThroughput = Double.MIN_VALUE;
             double totalThroughput = 0;
+            int reportingClients = 0;
+            double totalTargetRate = 0;
+            double totalAchievedRate = 0;
 
             StringBuilder clientMetricsSBuilder = new StringBuilder();
+            StringBuilder latencyMetricsSBuilder = new StringBuilder();
 
             for (int client: futureMeasurements.keySet()) {
                 Future<Measurement> future = futureMeasurements.get(client);
@@ -52,6 +76,7 @@ public class Main {
                     Util.debugLog("Main", "No metrics from client " + client);
                 } else {
                     clientMetricsSBuilder.append(performanceData[0]).append(System.lineSeparator());
+                    latencyMetricsSBuilder.append(performanceData[2]);
                 }
 
                 if (performanceData[1] == null || performanceData[1].isEmpty()) {
@@ -61,22 +86,41 @@ public class Main {
                     minThroughput = Math.min(minThroughput, throughput);
                     maxThroughput = Math.max(maxThroughput, throughput);      
                     totalThroughput += throughput;
+                    reportingClients++;
+                    totalTargetRate += Double.parseDouble(performanceData[3]);
+                    totalAchievedRate += Double.parseDouble(performanceData[4]);
                 }
             }
 
-            double avgThroughPut = totalThroughput/8;
+            if (reporter != null) {
+                reporter.stop();
+            }
+            if (Config.NEW_ORDER_ID_BLOCK_SIZE > 0) {
+                // Every client is done, their unused order ids can be given back.
+                OrderIdAllocator.getInstance(session).release(new File(Constants.METRICS_DIR, "order_id_gaps_" + serverNum + ".csv"));
+            }
+
+            double avgThroughPut = reportingClients > 0 ? totalThroughput/reportingClients : 0;
 
             String clientFile = "clients_" + serverNum + ".csv";
             String throughputFile = "throughput_" + serverNum + ".csv";
+            String latencyFile = "latency_" + serverNum + ".csv";
 
             String clientMetrics = clientMetricsSBuilder.toString();
             String throughputMetrics = String.join(",", String.valueOf(minThroughput), 
                                     String.valueOf(maxThroughput), String.valueOf(avgThroughPut));
+            if (openLoop) {
+                // Offered load against what the clients of this node actually completed, in tx/s.
+                throughputMetrics = String.join(",", throughputMetrics,
+                                    String.valueOf(totalTargetRate), String.valueOf(totalAchievedRate));
+            }
 
             try(PrintWriter clientFileWriter = new PrintWriter(new FileWriter(new File(Constants.METRICS_DIR, clientFile)));
-                PrintWriter throughputWriter = new PrintWriter(new FileWriter(new File(Constants.METRICS_DIR, throughputFile)))) {
+                PrintWriter throughputWriter = new PrintWriter(new FileWriter(new File(Constants.METRICS_DIR, throughputFile)));
+                PrintWriter latencyWriter = new PrintWriter(new FileWriter(new File(Constants.METRICS_DIR, latencyFile)))) {
                 throughputWriter.println(throughputMetrics);
                 clientFileWriter.println(clientMetrics);
+                latencyWriter.print(latencyMetricsSBuilder.toString());
             } catch (IOException e) {
                 e.printStackTrace();
                 System.err.println(String.format("Throughput of %d: %s%sClient Metrics of %d: %s", serverNum, 
@@ -85,47 +129,70 @@ public class Main {
             executor.shutdown();
         }
     }
+    /**
+     * Creates the executor running the clients of this process, see {@link Config#CLIENT_EXECUTOR}.
+     * Virtual threads need JDK 21 or newer; on older JDKs the fixed pool is used instead.
+     */
+    private static ExecutorService createClientExecutor() {
+        switch (Config.CLIENT_EXECUTOR) {
+            case "workStealing":
+                return Executors.newWorkStealingPool(Config.CLIENT_EXECUTOR_THREADS);
+            case "virtual":
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    Util.debugLog("Main", "Virtual threads are not available on this JDK, using a fixed thread pool");
+                }
+                return Executors.newFixedThreadPool(Config.CLIENT_EXECUTOR_THREADS);
+            case "fixed":
+                return Executors.newFixedThreadPool(Config.CLIENT_EXECUTOR_THREADS);
+            default:
+                throw new IllegalArgumentException("Unknown executor: " + Config.CLIENT_EXECUTOR);
+        }
+    }
+
     public static String[] createPerformanceData(Future<Measurement> future) {
         StringBuilder record = new StringBuilder();
-        String [] performanceData = new String[2];
+        String [] performanceData = new String[5];
         Measurement m;
         try {
             m = future.get();
-            double totalLatency = 0;
-            for(long latency : m.transactionLatency) {
-                totalLatency += latency;
-            }
-            double throughput = totalLatency > 0 ? (double) m.transactionCount / totalLatency : 0;
-            double totalLatencyInSecs = totalLatency / 1000;
-            double avgLatency = m.transactionCount > 0 ? totalLatencyInSecs/ (double) m.transactionCount : 0;
-            
-            Collections.sort(m.transactionLatency);
-            int latencyLen = m.transactionLatency.size();
-          
-	        double medianLatency = 0;
-            long percentile_95th = 0;
-            long percentile_99th = 0;
-            if (m.transactionLatency.size() > 0) {
-                if (latencyLen % 2 == 0) {
-                    medianLatency = ((double)m.transactionLatency.get(latencyLen/2) + (double)m.transactionLatency.get(latencyLen/2 -1))/2;
-                } else {
-                    medianLatency = (double)m.transactionLatency.get(latencyLen/2);
-                }
-                percentile_95th = percentile(m.transactionLatency, 95);
-                percentile_99th = percentile(m.transactionLatency, 99);
-            }
-           
+            LatencyHistogram latency = m.latency.total();
+            double totalLatencyInSecs = latency.getTotalValue() / 1_000_000.0;
+            double throughput = totalLatencyInSecs > 0 ? (double) m.transactionCount / totalLatencyInSecs : 0;
+            double avgLatency = latency.getMean() / 1000;
+
             record.append(m.index + ", ");
             record.append(m.transactionCount + ", ");
             record.append(BigDecimal.valueOf(totalLatencyInSecs).setScale(2, RoundingMode.HALF_UP).toPlainString() + ", ");
             record.append(BigDecimal.valueOf(throughput).setScale(2, RoundingMode.HALF_UP).toPlainString() + ", ");
             record.append(BigDecimal.valueOf(avgLatency).setScale(2, RoundingMode.HALF_UP).toPlainString() + ", ");
-            record.append(BigDecimal.valueOf(medianLatency).setScale(2, RoundingMode.HALF_UP).toPlainString() + ", ");
-            record.append(percentile_95th + ", ");
-            record.append(percentile_99th );
+            record.append(toMillis(latency.getValueAtPercentile(50), 2) + ", ");
+            record.append(toMillis(latency.getValueAtPercentile(95), 2) + ", ");
+            record.append(toMillis(latency.getValueAtPercentile(99), 2) + ", ");
+            appendLatencySummary(record, latency);
+
+            StringBuilder typeRecords = new StringBuilder();
+            for (int i = 0; i < LatencyRecorder.TRANSACTION_TYPES.length(); i++) {
+                LatencyHistogram typeLatency = m.latency.get(i);
+                if (typeLatency.getTotalCount() == 0 && m.latency.getFailures(i) == 0) {
+                    continue;
+                }
+                typeRecords.append(m.index + ", " + LatencyRecorder.TRANSACTION_TYPES.charAt(i) + ", " + typeLatency.getTotalCount() + ", ");
+                appendLatencySummary(typeRecords, typeLatency);
+                typeRecords.append(", " + m.latency.getRetries(i) + ", ");
+                typeRecords.append(toMillis(m.latency.getBackoffMicros(i), 3) + ", ");
+                typeRecords.append(m.latency.getFailures(i) + ", ");
+                typeRecords.append(m.latency.getPartials(i));
+                typeRecords.append(System.lineSeparator());
+            }
 
             performanceData[0] = record.toString();
             performanceData[1] = Double.toString(throughput);
+            performanceData[2] = typeRecords.toString();
+            double elapsedSecs = m.elapsedNanos / 1_000_000_000.0;
+            performanceData[3] = Double.toString(m.targetRate);
+            performanceData[4] = Double.toString(elapsedSecs > 0 ? m.transactionCount / elapsedSecs : 0);
             System.err.println(performanceData[0]);
 
         } catch(InterruptedException | ExecutionException e) {
@@ -133,8 +200,22 @@ public class Main {
         }
         return performanceData;
     }
-    public static long percentile(List<Long> latencies, double percentile) {
-        int index = (int) Math.ceil(percentile / 100.0 * latencies.size());
-        return latencies.get(index-1);
+
+    /**
+     * Appends min, max, mean, p50, p90, p95, p99 and p99.9 in milliseconds.
+     */
+    private static void appendLatencySummary(StringBuilder record, LatencyHistogram latency) {
+        record.append(toMillis(latency.getMinValue(), 3) + ", ");
+        record.append(toMillis(latency.getMaxValue(), 3) + ", ");
+        record.append(BigDecimal.valueOf(latency.getMean() / 1000).setScale(3, RoundingMode.HALF_UP).toPlainString() + ", ");
+        record.append(toMillis(latency.getValueAtPercentile(50), 3) + ", ");
+        record.append(toMillis(latency.getValueAtPercentile(90), 3) + ", ");
+        record.append(toMillis(latency.getValueAtPercentile(95), 3) + ", ");
+        record.append(toMillis(latency.getValueAtPercentile(99), 3) + ", ");
+        record.append(toMillis(latency.getValueAtPercentile(99.9), 3));
+    }
+
+    private static String toMillis(long micros, int scale) {
+        return BigDecimal.valueOf(micros, 3).setScale(scale, RoundingMode.HALF_UP).toPlainString();
     }
 }
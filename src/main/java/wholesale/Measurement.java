@@ -1,14 +1,16 @@
 package wholesale;
 
-import java.util.List;
-
 public class Measurement {
     int index;
     long transactionCount;
-    List<Long> transactionLatency;
-    public Measurement(int index, long transactionCount, List<Long> transactionLatency) {
+    LatencyRecorder latency;
+    // Wall clock time the client spent replaying its file.
+    long elapsedNanos;
+    // Target rate in open-loop mode, 0 in closed-loop mode.
+    double targetRate;
+    public Measurement(int index, long transactionCount, LatencyRecorder latency) {
         this.index = index;
         this.transactionCount = transactionCount;
-        this.transactionLatency = transactionLatency;
+        this.latency = latency;
     }
 }
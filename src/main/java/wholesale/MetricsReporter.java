@@ -0,0 +1,152 @@
+package wholesale;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes interval throughput and latency percentiles while the clients are running.
+ *
+ * Every {@link Config#METRICS_INTERVAL_SECONDS} seconds the reporter reads the live
+ * {@link LatencyRecorder}s of the clients, without locking them, and appends one JSON line per
+ * transaction type (all clients) and one per client (all types) to
+ * {@code metrics/live_<node_number>.jsonl}. Latencies are in milliseconds, throughput in tx/s.
+ */
+public class MetricsReporter {
+
+    private final int serverNum;
+    private final Map<Integer, LatencyRecorder> recorders;
+    private final PrintWriter writer;
+    private final ScheduledExecutorService scheduler;
+
+    // Cumulative histograms as of the previous report, to compute interval deltas.
+    private final LatencyHistogram[] previousByType = new LatencyHistogram[LatencyRecorder.TRANSACTION_TYPES.length()];
+    private final LatencyHistogram[] previousByClient;
+    private final long[] previousRetries = new long[LatencyRecorder.TRANSACTION_TYPES.length()];
+    private final long[] previousBackoffMicros = new long[LatencyRecorder.TRANSACTION_TYPES.length()];
+    private final LatencyHistogram cumulative = new LatencyHistogram();
+    private final LatencyHistogram interval = new LatencyHistogram();
+
+    private final long startNanos;
+    private long lastReportNanos;
+
+    private MetricsReporter(int serverNum, Map<Integer, LatencyRecorder> recorders) throws IOException {
+        this.serverNum = serverNum;
+        this.recorders = recorders;
+        this.writer = new PrintWriter(new FileWriter(new File(Constants.METRICS_DIR, "live_" + serverNum + ".jsonl")));
+        for (int i = 0; i < previousByType.length; i++) {
+            previousByType[i] = new LatencyHistogram();
+        }
+        this.previousByClient = new LatencyHistogram[recorders.size()];
+        for (int i = 0; i < previousByClient.length; i++) {
+            previousByClient[i] = new LatencyHistogram();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, MetricsReporter.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.startNanos = this.lastReportNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts reporting the given clients, keyed by client index. Returns null when live
+     * metrics are disabled.
+     */
+    public static MetricsReporter start(int serverNum, Map<Integer, LatencyRecorder> recorders) {
+        if (Config.METRICS_INTERVAL_SECONDS <= 0) {
+            return null;
+        }
+        try {
+            MetricsReporter reporter = new MetricsReporter(serverNum, recorders);
+            reporter.scheduler.scheduleAtFixedRate(reporter::report, Config.METRICS_INTERVAL_SECONDS,
+                    Config.METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            return reporter;
+        } catch (IOException e) {
+            Util.debugLog(MetricsReporter.class.getSimpleName(), "Live metrics disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stops the schedule and writes the last, possibly partial, interval.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(Config.METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ignore) {
+
+        }
+        report();
+        writer.close();
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        double intervalSecs = (now - lastReportNanos) / 1_000_000_000.0;
+        lastReportNanos = now;
+        long timestamp = System.currentTimeMillis();
+        double elapsedSecs = (now - startNanos) / 1_000_000_000.0;
+
+        for (int type = 0; type < previousByType.length; type++) {
+            cumulative.reset();
+            long retries = 0;
+            long backoffMicros = 0;
+            for (LatencyRecorder recorder : recorders.values()) {
+                cumulative.add(recorder.get(type));
+                retries += recorder.getRetries(type);
+                backoffMicros += recorder.getBackoffMicros(type);
+            }
+            String scope = "\"type\":\"" + LatencyRecorder.TRANSACTION_TYPES.charAt(type) + "\""
+                + ",\"retries\":" + (retries - previousRetries[type])
+                + ",\"backoff\":" + format((backoffMicros - previousBackoffMicros[type]) / 1000.0, 3);
+            previousRetries[type] = retries;
+            previousBackoffMicros[type] = backoffMicros;
+            writeInterval(timestamp, elapsedSecs, intervalSecs, scope, previousByType[type]);
+        }
+
+        int clientSlot = 0;
+        for (Map.Entry<Integer, LatencyRecorder> client : recorders.entrySet()) {
+            cumulative.reset();
+            for (int type = 0; type < previousByType.length; type++) {
+                cumulative.add(client.getValue().get(type));
+            }
+            writeInterval(timestamp, elapsedSecs, intervalSecs, "\"client\":" + client.getKey(), previousByClient[clientSlot++]);
+        }
+        writer.flush();
+    }
+
+    private void writeInterval(long timestamp, double elapsedSecs, double intervalSecs, String scope, LatencyHistogram previous) {
+        interval.setToDifference(cumulative, previous);
+        previous.reset();
+        previous.add(cumulative);
+
+        long count = interval.getTotalCount();
+        writer.println(new StringBuilder("{\"time\":").append(timestamp)
+            .append(",\"elapsed\":").append(format(elapsedSecs, 1))
+            .append(",\"server\":").append(serverNum)
+            .append(',').append(scope)
+            .append(",\"count\":").append(count)
+            .append(",\"tps\":").append(format(intervalSecs > 0 ? count / intervalSecs : 0, 2))
+            .append(",\"mean\":").append(format(interval.getMean() / 1000, 3))
+            .append(",\"p50\":").append(format(interval.getValueAtPercentile(50) / 1000.0, 3))
+            .append(",\"p90\":").append(format(interval.getValueAtPercentile(90) / 1000.0, 3))
+            .append(",\"p95\":").append(format(interval.getValueAtPercentile(95) / 1000.0, 3))
+            .append(",\"p99\":").append(format(interval.getValueAtPercentile(99) / 1000.0, 3))
+            .append(",\"p999\":").append(format(interval.getValueAtPercentile(99.9) / 1000.0, 3))
+            .append(",\"max\":").append(format(interval.getMaxValue() / 1000.0, 3))
+            .append('}'));
+    }
+
+    private static String format(double value, int scale) {
+        return BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP).toPlainString();
+    }
+}
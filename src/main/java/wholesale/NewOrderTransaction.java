@@ -2,7 +2,9 @@ package wholesale;
 
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
@@ -14,21 +16,33 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
 import static wholesale.Constants.KEYSPACE_NAME;
 
 public class NewOrderTransaction {
     private CqlSession session;
+    private TransactionOutput out;
+    private boolean asyncReads;
     private PreparedStatement selectCustomerByDistrictStatement;
     private PreparedStatement selectStock;
     private PreparedStatement updateStock;
-    private PreparedStatement selectItem;
     private PreparedStatement insertOrder;
     private PreparedStatement insertOrderDelivery;
+    private PreparedStatement insertUndeliveredOrder;
     private PreparedStatement selectNextOid;
+    private OrderIdAllocator orderIds;
+    // Id from the allocator for the current order, 0 when none, and whether its batch was sent
+    // without an answer.
+    private int leasedOrderId;
+    private boolean orderWriteUncertain;
 
     private BatchStatementBuilder insertOrderBatch;
 
+    private ItemCatalog itemCatalog;
+    private RelatedCustomerIndex relatedCustomerIndex;
+    private DistrictOrderWindow orderWindow;
+
     private UserDefinedType orderLineType;
 
     private static final String SELECT_CUSTOMER =
@@ -47,9 +61,6 @@ public class NewOrderTransaction {
             " UPDATE stock SET S_QUANTITY = ?, S_YTD = ?, S_ORDER_CNT = ?, S_REMOTE_CNT = ?" +
                     " WHERE S_W_ID = ? AND S_I_ID = ?; ";
 
-    private static final String SELECT_ITEM = "SELECT * FROM " + Constants.TableName.ITEM +
-            " WHERE I = 1 AND " + Constants.Item.ITEM_ID + " = ?; ";
-
     private static final String INSERT_ORDER = "INSERT INTO " + Constants.TableName.ORDER + " ( " +
             Constants.Order.WAREHOUSE_ID + ", " + Constants.Order.DISTRICT_ID + "," + Constants.Order.ORDER_ID + "," +
             Constants.Order.CUSTOMER_ID + "," + Constants.Order.D_NEXT_ORDER_ID + "," +
@@ -62,34 +73,113 @@ public class NewOrderTransaction {
             Constants.Order.CUSTOMER_ID + "," + Constants.Order.CARRIER_ID + ", " + Constants.Order.TOTAL_AMOUNT + 
             ") VALUES (?, ?, ?, ?, ?, ?) ";
 
-    public NewOrderTransaction(CqlSession session) {
+    private static final String INSERT_UNDELIVERED_ORDER = "INSERT INTO " + Constants.TableName.UNDELIVERED_ORDER + " ( " +
+            Constants.Order.WAREHOUSE_ID + ", " + Constants.Order.DISTRICT_ID + "," +
+            Constants.Order.ORDER_ID + "," + Constants.Order.CUSTOMER_ID + "," + Constants.Order.TOTAL_AMOUNT +
+            ") VALUES (?, ?, ?, ?, ?) ";
+
+    public NewOrderTransaction(CqlSession session, TransactionOutput out) {
+        this(session, Config.NEW_ORDER_ASYNC, out);
+    }
+
+    public NewOrderTransaction(CqlSession session, boolean asyncReads, TransactionOutput out) {
         this.session = session;
+        this.out = out;
+        this.asyncReads = asyncReads;
         this.selectCustomerByDistrictStatement = this.session.prepare(SELECT_CUSTOMER);
         this.selectStock = this.session.prepare(SELECT_STOCK);
         this.updateStock = this.session.prepare(UPDATE_STOCK);
-        this.selectItem = this.session.prepare(SELECT_ITEM);
+        this.itemCatalog = ItemCatalog.getInstance(session);
+        if (Config.RELATED_CUSTOMER_INDEX) {
+            this.relatedCustomerIndex = RelatedCustomerIndex.getInstance(session);
+        }
+        if (Config.ORDER_WINDOW_SIZE > 0) {
+            this.orderWindow = DistrictOrderWindow.getInstance(session);
+        }
+        if (Config.NEW_ORDER_ID_BLOCK_SIZE > 0) {
+            this.orderIds = OrderIdAllocator.getInstance(session);
+        }
         this.insertOrder = this.session.prepare(INSERT_ORDER);
         this.insertOrderDelivery = this.session.prepare(INSERT_ORDER_DELIVERY);
+        this.insertUndeliveredOrder = this.session.prepare(INSERT_UNDELIVERED_ORDER);
         this.selectNextOid = this.session.prepare(SELECT_NEXT_O_ID);
         orderLineType = session.getMetadata().getKeyspace(KEYSPACE_NAME)
                 .get().getUserDefinedType(Constants.Udt.ORDER_LINE).get();
     }
 
     public boolean executeTransaction(int C_ID, int W_ID, int D_ID, List<InputOrderItem> orderItems) {
+        leasedOrderId = 0;
+        orderWriteUncertain = false;
+        boolean placed = false;
+        try {
+            placed = placeOrder(C_ID, W_ID, D_ID, orderItems);
+            return placed;
+        } finally {
+            if (!placed && leasedOrderId > 0) {
+                // The id belongs to no order, unless the batch may have been written anyway.
+                if (orderWriteUncertain) {
+                    orderIds.abandon(W_ID, D_ID, leasedOrderId);
+                } else {
+                    orderIds.giveBack(W_ID, D_ID, leasedOrderId);
+                }
+            }
+        }
+    }
+
+    private boolean placeOrder(int C_ID, int W_ID, int D_ID, List<InputOrderItem> orderItems) {
         insertOrderBatch = new BatchStatementBuilder(DefaultBatchType.LOGGED);
         StringBuilder printOutput = new StringBuilder();
-        Row customer_data = getCustomerByDistrict(W_ID, D_ID, C_ID);
         List<UdtValue>orderlines = new ArrayList<>();
         ArrayList<Integer> itemIds = new ArrayList<>();
+
+        Row customer_data;
+        Row row = null;
+        int nextOrderId = 0;
+        Row[] stocks = new Row[orderItems.size()];
+        ItemCatalog.Entry[] items = new ItemCatalog.Entry[orderItems.size()];
+        if (asyncReads) {
+            // Issue every read of the order up front and wait for all of them together.
+            CompletionStage<AsyncResultSet> customerStage = session.executeAsync(bindCustomerByDistrict(W_ID, D_ID, C_ID));
+            CompletionStage<AsyncResultSet> nextOidStage = orderIds == null
+                    ? session.executeAsync(this.selectNextOid.bind(W_ID, D_ID)) : null;
+            List<CompletionStage<AsyncResultSet>> stockStages = new ArrayList<>(orderItems.size());
+            for (InputOrderItem orderItem : orderItems) {
+                stockStages.add(session.executeAsync(bindStock(orderItem.supply_W_ID, orderItem.item_ID)));
+            }
+            // A new block is leased while the reads are in flight.
+            if (orderIds != null) {
+                nextOrderId = leasedOrderId = orderIds.next(W_ID, D_ID);
+            }
+            customer_data = Util.join(customerStage).one();
+            if (nextOidStage != null) {
+                row = Util.join(nextOidStage).one();
+            }
+            for (int j = 0; j < orderItems.size(); j++) {
+                stocks[j] = Util.join(stockStages.get(j)).one();
+                items[j] = itemCatalog.get(orderItems.get(j).item_ID);
+            }
+        } else {
+            customer_data = getCustomerByDistrict(W_ID, D_ID, C_ID);
+            if (orderIds != null) {
+                nextOrderId = leasedOrderId = orderIds.next(W_ID, D_ID);
+            } else {
+                row = session.execute(this.selectNextOid.bind(W_ID, D_ID)).one();
+            }
+            for (int j = 0; j < orderItems.size(); j++) {
+                InputOrderItem orderItem = orderItems.get(j);
+                stocks[j] = getStock(orderItem.supply_W_ID, orderItem.item_ID);
+                items[j] = itemCatalog.get(orderItem.item_ID);
+            }
+        }
         double districtTax = customer_data.getBigDecimal(Constants.Customer.DISTRICT_TAX).doubleValue();
         double warehouseTax = customer_data.getBigDecimal(Constants.Customer.WAREHOUSE_TAX).doubleValue();
 
-        ResultSet res = session.execute(this.selectNextOid.bind(W_ID, D_ID));
-        Row row = res.one();
-        if(row ==null){
-            return false;
+        if (orderIds == null) {
+            if(row ==null){
+                return false;
+            }
+            nextOrderId = row.getInt(Constants.Order.D_NEXT_ORDER_ID);
         }
-        int nextOrderId = row.getInt(Constants.Order.D_NEXT_ORDER_ID);
 
         BigDecimal orderLineCount = new BigDecimal(orderItems.size());
         BigDecimal allLocal = new BigDecimal(1);
@@ -112,7 +202,7 @@ public class NewOrderTransaction {
         int i=1;
         int totalOrderLineQuantity = 0;
         for(InputOrderItem orderItem : orderItems) {
-            Row stock = getStock(orderItem.supply_W_ID, orderItem.item_ID);
+            Row stock = stocks[i - 1];
             int adjQuantity = stock.getInt("S_QUANTITY") - orderItem.quantity;
             while(adjQuantity < 10) {
                 adjQuantity += 100;
@@ -121,8 +211,8 @@ public class NewOrderTransaction {
                     stock.getBigDecimal("S_YTD").add(new BigDecimal(orderItem.quantity)),
                     stock.getInt("S_ORDER_CNT")+1,
                     orderItem.supply_W_ID != W_ID ? stock.getInt("S_REMOTE_CNT") + 1 : stock.getInt("S_REMOTE_CNT"));
-            Row item = getItem(orderItem.item_ID);
-            BigDecimal itemPrice = item.getBigDecimal(Constants.Item.PRICE);
+            ItemCatalog.Entry item = items[i - 1];
+            BigDecimal itemPrice = item.price;
             BigDecimal itemAmount = itemPrice.multiply(new BigDecimal(orderItem.quantity));
             totalAmount += itemAmount.doubleValue();
             totalOrderLineQuantity += orderItem.quantity;
@@ -131,7 +221,7 @@ public class NewOrderTransaction {
                     orderItem.supply_W_ID, new BigDecimal(orderItem.quantity)));
             itemIds.add(orderItem.item_ID);
             i++;
-            printOutput.append(", Item Number: "+ orderItem.item_ID + " I_NAME: "+ item.getString(Constants.Item.NAME) +
+            printOutput.append(", Item Number: "+ orderItem.item_ID + " I_NAME: "+ item.name +
                     " SUPPLY_W_ID: "+ orderItem.supply_W_ID + " Quantity: "+ orderItem.quantity + "OL_AMOUNT: "+ itemAmount +
                     " S_QUANTITY: " + adjQuantity);
 
@@ -141,38 +231,64 @@ public class NewOrderTransaction {
                 totalOrderLineQuantity, itemIds, orderlines);
 
         insertOrderBatch.addStatement(insertOrderDelivery.bind(W_ID, D_ID, nextOrderId, C_ID, -1, new BigDecimal(totalAmount)));
+        insertOrderBatch.addStatement(insertUndeliveredOrder.bind(W_ID, D_ID, nextOrderId, C_ID, new BigDecimal(totalAmount)));
 
         totalAmount = totalAmount * (1 + warehouseTax + districtTax) *
                 (1 - customer_data.getBigDecimal(Constants.Customer.DISCOUNT).doubleValue());
         printOutput.append(" NUM_ITEMS: "+ orderItems.size() + " TOTAL_AMOUNT: "+ totalAmount);
 
+        orderWriteUncertain = true;
         ResultSet result = session.execute(insertOrderBatch.build());
+        orderWriteUncertain = false;
         if (result.wasApplied()) {
-                System.out.println(printOutput.toString());
+                // The id belongs to the order now, whatever happens next.
+                leasedOrderId = 0;
+                out.println(printOutput.toString());
+                int[] orderItemIds = new int[itemIds.size()];
+                for (int j = 0; j < orderItemIds.length; j++) {
+                    orderItemIds[j] = itemIds.get(j);
+                }
+                if (relatedCustomerIndex != null) {
+                    relatedCustomerIndex.addOrder(W_ID, D_ID, C_ID, nextOrderId, orderItemIds);
+                }
+                if (orderWindow != null) {
+                    int[] quantities = new int[orderItems.size()];
+                    for (int j = 0; j < quantities.length; j++) {
+                        quantities[j] = orderItems.get(j).quantity;
+                    }
+                    orderWindow.addOrder(W_ID, D_ID, nextOrderId, C_ID, currDate.getTime(), orderItemIds, quantities);
+                }
         }
         return result.wasApplied();
     }
     public Row getCustomerByDistrict(int W_ID, int D_ID, int C_ID) {
-        ResultSet customerByDistrict = this.session.execute(selectCustomerByDistrictStatement.bind(W_ID, D_ID, C_ID).setConsistencyLevel(ConsistencyLevel.ONE));
+        ResultSet customerByDistrict = this.session.execute(bindCustomerByDistrict(W_ID, D_ID, C_ID));
         return customerByDistrict.one();
     }
     public Row getStock(int supply_W_ID, int item_ID) {
-        ResultSet stock = session.execute(selectStock.bind(supply_W_ID, item_ID).setConsistencyLevel(ConsistencyLevel.ONE));
+        ResultSet stock = session.execute(bindStock(supply_W_ID, item_ID));
         return stock.one();
     }
     public void updateStock(int supply_W_ID, int item_ID, int adjQuantity,
                             BigDecimal ytd, int orderCount, int remoteCount) {
         insertOrderBatch.addStatement(updateStock.bind(adjQuantity, ytd, orderCount, remoteCount, supply_W_ID, item_ID).setConsistencyLevel(ConsistencyLevel.ALL));
     }
-    public Row getItem(int item_ID) {
-        ResultSet item = session.execute(selectItem.bind(item_ID).setConsistencyLevel(ConsistencyLevel.ONE));
-        return item.one();
+    private BoundStatement bindCustomerByDistrict(int W_ID, int D_ID, int C_ID) {
+        return selectCustomerByDistrictStatement.bind(W_ID, D_ID, C_ID).setConsistencyLevel(ConsistencyLevel.ONE);
+    }
+    private BoundStatement bindStock(int supply_W_ID, int item_ID) {
+        return selectStock.bind(supply_W_ID, item_ID).setConsistencyLevel(ConsistencyLevel.ONE);
     }
     public void createNewOrder(int W_ID, int D_ID, int nextOrderId, int C_ID, BigDecimal orderLineCount,
                                BigDecimal allLocal, Date currDate, int totalOrderLineQuantity,
                                List<Integer>itemIds, List<UdtValue> orderlines) {
-        insertOrderBatch.addStatement(insertOrder.bind(W_ID, D_ID, nextOrderId, C_ID, nextOrderId+1,
-                orderLineCount, allLocal, currDate.toInstant(), totalOrderLineQuantity, itemIds, orderlines).setConsistencyLevel(ConsistencyLevel.ALL));
+        BoundStatement order = insertOrder.bind(W_ID, D_ID, nextOrderId, C_ID, nextOrderId+1,
+                orderLineCount, allLocal, currDate.toInstant(), totalOrderLineQuantity, itemIds, orderlines).setConsistencyLevel(ConsistencyLevel.ALL);
+        if (orderIds != null) {
+            // D_NEXT_O_ID is moved by the allocator only.
+            order = order.unset(Constants.Order.D_NEXT_ORDER_ID);
+        }
+        insertOrderBatch.addStatement(order);
     }
     public UdtValue getOrderLine(int OL_NUMBER, int OL_I_ID, BigDecimal OL_AMOUNT,
                                  int OL_SUPPLY_W_ID, BigDecimal OL_QUANTITY) {
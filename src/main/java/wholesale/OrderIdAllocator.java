@@ -0,0 +1,253 @@
+package wholesale;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.ResultSet;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+
+import wholesale.Constants.Order;
+import wholesale.Constants.TableName;
+
+/**
+ * Hands out the order ids of New Order, shared by every client thread of the process. The ids of
+ * a district are leased in blocks by moving its D_NEXT_O_ID static column forward with one
+ * conditional update, then handed out from memory, so no two clients of any node get the same
+ * O_ID and most orders read nothing to get one.
+ *
+ * D_NEXT_O_ID is therefore the first id not leased yet, and the orders of a district are placed
+ * out of O_ID order while several nodes fill their blocks. An id whose order is not placed comes
+ * back with {@link #giveBack} and is handed out again, or is recorded with {@link #abandon} when
+ * the order may have been written. {@link #release} returns the unused end of the last blocks at
+ * the end of the run and records every other id that was never used.
+ *
+ * A lease whose conditional update fails with an unknown outcome, such as a write timeout, may
+ * still have been applied. The next lease of the district tries again from the same value; when
+ * that finds D_NEXT_O_ID already moved, the block is recorded as {@code unknown}, since it may be
+ * the lost lease of this process or the lease of another node.
+ */
+public final class OrderIdAllocator {
+
+    private static OrderIdAllocator INSTANCE;
+
+    private final CqlSession session;
+    private final int blockSize;
+    private final PreparedStatement selectNextOrderId;
+    private final PreparedStatement moveNextOrderId;
+    private final ConcurrentHashMap<Long, Block> blocks = new ConcurrentHashMap<>();
+
+    public static synchronized OrderIdAllocator getInstance(CqlSession session) {
+        if (INSTANCE == null) {
+            INSTANCE = new OrderIdAllocator(session, Config.NEW_ORDER_ID_BLOCK_SIZE);
+        }
+        return INSTANCE;
+    }
+
+    private OrderIdAllocator(CqlSession session, int blockSize) {
+        this.session = session;
+        this.blockSize = blockSize;
+        this.selectNextOrderId = session.prepare(QueryBuilder.selectFrom(TableName.ORDER).column(Order.D_NEXT_ORDER_ID)
+                .whereColumn("O_W_ID").isEqualTo(QueryBuilder.bindMarker())
+                .whereColumn("O_D_ID").isEqualTo(QueryBuilder.bindMarker())
+                .limit(1)
+                .build());
+        this.moveNextOrderId = session.prepare(QueryBuilder.update(TableName.ORDER)
+                .setColumn(Order.D_NEXT_ORDER_ID, QueryBuilder.bindMarker())
+                .whereColumn("O_W_ID").isEqualTo(QueryBuilder.bindMarker())
+                .whereColumn("O_D_ID").isEqualTo(QueryBuilder.bindMarker())
+                .ifColumn(Order.D_NEXT_ORDER_ID).isEqualTo(QueryBuilder.bindMarker())
+                .build());
+    }
+
+    /**
+     * Returns an O_ID of the district no other client has. Ids given back are handed out first.
+     * The caller then either places the order or hands the id to {@link #giveBack} or
+     * {@link #abandon}.
+     */
+    public int next(int warehouseId, int districtId) {
+        Block block = block(warehouseId, districtId);
+        synchronized (block) {
+            if (!block.returned.isEmpty()) {
+                return block.returned.pop();
+            }
+            if (block.next == block.end) {
+                lease(block);
+            }
+            return block.next++;
+        }
+    }
+
+    /**
+     * Takes back an id from {@link #next} whose order was not written, to hand it out again.
+     */
+    public void giveBack(int warehouseId, int districtId, int orderId) {
+        Block block = block(warehouseId, districtId);
+        synchronized (block) {
+            block.returned.push(orderId);
+        }
+    }
+
+    /**
+     * Records an id from {@link #next} whose order may or may not have been written, such as after
+     * a write timeout. It is never handed out again.
+     */
+    public void abandon(int warehouseId, int districtId, int orderId) {
+        Block block = block(warehouseId, districtId);
+        synchronized (block) {
+            block.abandoned.add(orderId);
+        }
+    }
+
+    private Block block(int warehouseId, int districtId) {
+        return blocks.computeIfAbsent(Util.districtKey(warehouseId, districtId), key -> new Block(warehouseId, districtId));
+    }
+
+    /**
+     * Moves D_NEXT_O_ID forward by one block. The end of the previous block is the expected
+     * value; when another node moved it meanwhile, the failed update returns the current value
+     * and the lease is tried again from there.
+     */
+    private void lease(Block block) {
+        int expected = block.uncertainFrom > 0 ? block.uncertainFrom : block.end > 0 ? block.end : readNextOrderId(block);
+        while (true) {
+            ResultSet result;
+            try {
+                result = session.execute(moveNextOrderId.bind(expected + blockSize, block.warehouseId, block.districtId,
+                        expected));
+            } catch (RuntimeException e) {
+                if (RetryPolicy.classify(e, false) == RetryPolicy.FailureClass.UNKNOWN_OUTCOME) {
+                    block.uncertainFrom = expected;
+                }
+                throw e;
+            }
+            boolean uncertain = block.uncertainFrom > 0;
+            block.uncertainFrom = 0;
+            if (result.wasApplied()) {
+                // After an uncertain attempt this also shows that attempt was not applied.
+                block.next = expected;
+                block.end = expected + blockSize;
+                block.leases++;
+                return;
+            }
+            Row current = result.one();
+            if (current == null || current.isNull(Order.D_NEXT_ORDER_ID)) {
+                throw new IllegalStateException(String.format("District %d of warehouse %d has no %s",
+                        block.districtId, block.warehouseId, Order.D_NEXT_ORDER_ID));
+            }
+            if (uncertain) {
+                // The uncertain attempt or another node moved D_NEXT_O_ID past expected.
+                block.unknown.add(new int[] {expected, expected + blockSize - 1});
+            } else {
+                block.conflicts++;
+            }
+            expected = current.getInt(Order.D_NEXT_ORDER_ID);
+        }
+    }
+
+    private int readNextOrderId(Block block) {
+        Row row = session.execute(selectNextOrderId.bind(block.warehouseId, block.districtId)).one();
+        if (row == null || row.isNull(Order.D_NEXT_ORDER_ID)) {
+            throw new IllegalStateException(String.format("District %d of warehouse %d has no %s",
+                    block.districtId, block.warehouseId, Order.D_NEXT_ORDER_ID));
+        }
+        return row.getInt(Order.D_NEXT_ORDER_ID);
+    }
+
+    /**
+     * Gives back the unused ids of every district, once no client of the process places orders
+     * any more. D_NEXT_O_ID moves back to the first unused id of the last block when no other node
+     * leased a block of the district after this one. Every other id without an order is written to
+     * {@code gapsFile} as an {@code O_W_ID,O_D_ID,first,last,state} line so the order count can be
+         * reconciled with D_NEXT_O_ID: {@code unused} ids have no order, and {@code unknown} ids were
+     * abandoned by an order that may have been written or belong to a lease of unknown outcome.
+     */
+    public synchronized void release(File gapsFile) {
+        long leases = 0;
+        long conflicts = 0;
+        long returned = 0;
+        long lost = 0;
+        long unknown = 0;
+        try (PrintWriter gaps = new PrintWriter(new FileWriter(gapsFile))) {
+            for (Map.Entry<Long, Block> entry : blocks.entrySet()) {
+                Block block = entry.getValue();
+                synchronized (block) {
+                    leases += block.leases;
+                    conflicts += block.conflicts;
+                    for (int orderId : block.returned) {
+                        printGap(gaps, block, orderId, orderId, "unused");
+                    }
+                    lost += block.returned.size();
+                    block.returned.clear();
+                    for (int orderId : block.abandoned) {
+                        printGap(gaps, block, orderId, orderId, "unknown");
+                    }
+                    unknown += block.abandoned.size();
+                    block.abandoned.clear();
+                    if (block.uncertainFrom > 0) {
+                        // Never tried again, the lease may have been applied.
+                        block.unknown.add(new int[] {block.uncertainFrom, block.uncertainFrom + blockSize - 1});
+                        block.uncertainFrom = 0;
+                    }
+                    for (int[] range : block.unknown) {
+                        printGap(gaps, block, range[0], range[1], "unknown");
+                        unknown += range[1] - range[0] + 1;
+                    }
+                    block.unknown.clear();
+                    if (block.next == block.end) {
+                        continue;
+                    }
+                    if (session.execute(moveNextOrderId.bind(block.next, block.warehouseId, block.districtId, block.end))
+                            .wasApplied()) {
+                        returned += block.end - block.next;
+                    } else {
+                        lost += block.end - block.next;
+                        printGap(gaps, block, block.next, block.end - 1, "unused");
+                    }
+                    // Nothing is handed out from this block any more.
+                    block.next = block.end;
+                }
+            }
+        } catch (IOException e) {
+            Util.debugLog(OrderIdAllocator.class.getSimpleName(), "Cannot write the order id gaps: " + e);
+        }
+        Util.debugLog(OrderIdAllocator.class.getSimpleName(), String.format(
+                "Leased %d blocks of %d order ids with %d conflicts; %d unused ids returned, %d left unused, %d unknown",
+                leases, blockSize, conflicts, returned, lost, unknown));
+    }
+
+    private static void printGap(PrintWriter gaps, Block block, int first, int last, String state) {
+        gaps.println(block.warehouseId + "," + block.districtId + "," + first + "," + last + "," + state);
+    }
+
+    private static final class Block {
+        final int warehouseId;
+        final int districtId;
+        // Next id to hand out, and the first id past the block. Both 0 before the first lease.
+        int next;
+        int end;
+        // Ids given back, handed out again before the block.
+        final ArrayDeque<Integer> returned = new ArrayDeque<>();
+        final List<Integer> abandoned = new ArrayList<>();
+        // First id of a lease whose update failed with an unknown outcome, 0 when there is none.
+        int uncertainFrom;
+        // First and last ids of the blocks that may have been leased by an uncertain update.
+        final List<int[]> unknown = new ArrayList<>();
+        long leases;
+        long conflicts;
+
+        Block(int warehouseId, int districtId) {
+            this.warehouseId = warehouseId;
+            this.districtId = districtId;
+        }
+    }
+}
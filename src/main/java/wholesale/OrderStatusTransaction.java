@@ -12,6 +12,7 @@ import java.util.List;
 
 public class OrderStatusTransaction {
     private CqlSession session;
+    private TransactionOutput out;
     
     private static final String SELECT_CUSTOMER =
             " SELECT " + Constants.Customer.NAME + " , " + Constants.Customer.BALANCE +
@@ -34,8 +35,9 @@ public class OrderStatusTransaction {
     private PreparedStatement selectOrder;
     private PreparedStatement selectOrderCarrier;
 
-    public OrderStatusTransaction(CqlSession session) {
+    public OrderStatusTransaction(CqlSession session, TransactionOutput out) {
         this.session = session;
+        this.out = out;
         this.selectCustomer = session.prepare(SELECT_CUSTOMER);
         this.selectOrder = session.prepare(SELECT_ORDER);
         this.selectOrderCarrier = session.prepare(SELECT_ORDER_CARRIER);
@@ -51,8 +53,8 @@ public class OrderStatusTransaction {
         String lastName = customerName.getString(Constants.CustomerName.LAST_NAME);
         BigDecimal customerBalance = customer.getBigDecimal(Constants.Customer.BALANCE);
 
-        System.out.println("First Name: " + firstName + " Middle Name: "+ middleName + " Last Name: "+lastName);
-        System.out.println("Customer Balance: "+ customerBalance);
+        out.println("First Name: " + firstName + " Middle Name: "+ middleName + " Last Name: "+lastName);
+        out.println("Customer Balance: "+ customerBalance);
 
         Row order = session.execute(selectOrder.bind(W_ID, D_ID, C_ID).setConsistencyLevel(ConsistencyLevel.ONE)).one();
         int orderNumber = order.getInt(Constants.Order.ORDER_ID);
@@ -61,18 +63,18 @@ public class OrderStatusTransaction {
         Row orderCarrier = session.execute(selectOrderCarrier.bind(W_ID, D_ID, orderNumber, C_ID)).one();
         int carrierId = orderCarrier.getInt(Constants.Order.CARRIER_ID);
 
-        System.out.println("Order Number: "+ orderNumber + " Entry Date" + entryDate.toString() + " Carrier ID: "+ carrierId);
+        out.println("Order Number: "+ orderNumber + " Entry Date" + entryDate.toString() + " Carrier ID: "+ carrierId);
 
         List<UdtValue> orderlines = order.getList(Constants.Order.ORDER_LINES,UdtValue.class);
         Instant deliveryTime = orderCarrier.getInstant(Constants.Order.DELIVERY_DATE);
 
-        System.out.println("Items details: ");
+        out.println("Items details: ");
         for (UdtValue orderLine : orderlines) {
             int itemId = orderLine.getInt(Constants.OrderLine.ITEM_ID);
             int supplyWarehouseId = orderLine.getInt(Constants.OrderLine.SUPPLY_W_ID);
             BigDecimal quantity = orderLine.getBigDecimal(Constants.OrderLine.QUANTITY);
             BigDecimal amount = orderLine.getBigDecimal(Constants.OrderLine.AMOUNT);
-            System.out.println("Item ID: "+ itemId + " Supply Warehouse ID: " + supplyWarehouseId +
+            out.println("Item ID: "+ itemId + " Supply Warehouse ID: " + supplyWarehouseId +
                     " Quantity: " + quantity + " Amount: " + amount + " Delivery Time: " + deliveryTime);
         }
 
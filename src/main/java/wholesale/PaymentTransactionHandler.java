@@ -1,7 +1,6 @@
 package wholesale;
 
 import java.math.BigDecimal;
-import java.util.HashMap;
 
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.CqlSession;
@@ -20,6 +19,8 @@ import wholesale.Constants.TableName;
 public class PaymentTransactionHandler {
 
     private CqlSession session;
+    private TransactionOutput out;
+    private TopBalanceLeaderboard leaderboard;
 
     private static final String[] OUTPUT_COLUMNS = {"C_W_ID", "C_D_ID", "C_ID", "C_NAME", "C_ADDRESS", "C_PHONE", 
         "C_SINCE", "C_CREDIT", "C_CREDIT_LIM", "C_DISCOUNT", "C_BALANCE", "W_ADDRESS", "D_ADDRESS", "C_PAYMENT_CNT"};
@@ -27,9 +28,14 @@ public class PaymentTransactionHandler {
     private PreparedStatement selectCustomerPrepared;
     private PreparedStatement selectCustomerOrderStatsPrepared;
     private PreparedStatement updateCustomerPaymentPrepared;
+    private final RowFormatter outputFormatter = new RowFormatter(OUTPUT_COLUMNS);
 
-    public PaymentTransactionHandler(CqlSession session) {
+    public PaymentTransactionHandler(CqlSession session, TransactionOutput out) {
         this.session = session;
+        this.out = out;
+        if (Config.TOP_BALANCE_LEADERBOARD) {
+            this.leaderboard = TopBalanceLeaderboard.getInstance(session);
+        }
         createPreparedStatements();
     }
 
@@ -86,13 +92,16 @@ public class PaymentTransactionHandler {
 
         boolean isSuccess = updateResult.wasApplied();
         if (isSuccess) {
-            HashMap<String, String> otherColumns = new HashMap<>();
-            otherColumns.put(Customer.WAREHOUSE_ID, String.valueOf(warehouseId));
-            otherColumns.put(Customer.DISTRICT_ID, String.valueOf(districtId));
-            otherColumns.put(Customer.ID, String.valueOf(customerId));
-            otherColumns.put(Customer.PAYMENT_CNT, String.valueOf(newPaymentCnt));
-            otherColumns.put(Customer.BALANCE, newBalance.toPlainString());
-            Util.printTransactionOutput(customerInfo, OUTPUT_COLUMNS, otherColumns);
+            if (leaderboard != null) {
+                leaderboard.update(warehouseId, districtId, customerId, newBalance);
+            }
+            outputFormatter
+                .set(Customer.WAREHOUSE_ID, warehouseId)
+                .set(Customer.DISTRICT_ID, districtId)
+                .set(Customer.ID, customerId)
+                .set(Customer.PAYMENT_CNT, newPaymentCnt)
+                .set(Customer.BALANCE, newBalance)
+                .print(out, customerInfo);
         }
         
         return isSuccess;
@@ -3,35 +3,34 @@ package wholesale;
 
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
-import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.core.data.UdtValue;
 import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
 import wholesale.Constants.TableName;
 
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
 
+/**
+ * Popular Items runs in three stages: read the last L orders and collect their distinct
+ * customers, read the names of all those customers with one IN query on the district's
+ * customer partition, then rank the items of every order in memory.
+ */
 public class PopularItemsTransaction {
     private CqlSession session;
-    private int orderNumRange;
-    private Hashtable<Integer , String> itemsNameMap;
-    //Store the appearance count of each items in all orders
-    private Hashtable<String , Integer>  itemsInOrders;
-    //Store the most popular item(s) in every order
-    private List<String> popularItems;
-    //Below 3 hold string lists for printout
-    private List<String> customerList;
-    private List<String> orderInfoList;
-    private List<String> popularItemsList;
-    private ResultSet searchResult;
+    private TransactionOutput out;
+    private ItemCatalog itemCatalog;
 
     private PreparedStatement getOrders;
-    private PreparedStatement customerInfoQuery;
-    private PreparedStatement itemQuery;
+    private PreparedStatement customerNamesQuery;
+    private DistrictOrderWindow orderWindow;
 
-    public PopularItemsTransaction(CqlSession session){
+    public PopularItemsTransaction(CqlSession session, TransactionOutput out){
         this.session = session;
+        this.out = out;
         // Prepare query to get last N orders from materialized view order table. (Orders in arranged in DESC order_id in table )
         this.getOrders =session.prepare(
                 QueryBuilder.selectFrom(TableName.ORDER_MAT_VIEW).columns("O_C_ID" , "O_ID",  "O_ENTRY_D","ORDER_LINES")
@@ -39,112 +38,120 @@ public class PopularItemsTransaction {
                         .whereColumn("O_D_ID").isEqualTo(QueryBuilder.bindMarker("D_ID"))
                         .limit(QueryBuilder.bindMarker("orderRange"))
                         .build().setConsistencyLevel(ConsistencyLevel.ONE));
-        // Prepare query to get customer info from customerTable (customer_data table)
-        this.customerInfoQuery = session.prepare(
-                QueryBuilder.selectFrom(TableName.CUSTOMER_DATA).columns("C_NAME") //get cust name col only
+        // Prepare query to get the names of several customers of one district partition (customer_data table)
+        this.customerNamesQuery = session.prepare(
+                QueryBuilder.selectFrom(TableName.CUSTOMER_DATA).columns("C_ID", "C_NAME")
                         .whereColumn("C_W_ID").isEqualTo(QueryBuilder.bindMarker("W_ID"))
                         .whereColumn("C_D_ID").isEqualTo(QueryBuilder.bindMarker("D_ID"))
-                        .whereColumn("C_ID").isEqualTo(QueryBuilder.bindMarker("C_ID"))
-                        .build().setConsistencyLevel(ConsistencyLevel.ONE)
-        );
-        //Prepare query to get item name from itemtable;
-        this.itemQuery = session.prepare(
-                QueryBuilder.selectFrom(TableName.ITEM).column("I_NAME")
-                        .whereColumn("I").isEqualTo(QueryBuilder.literal(1))
-                        .whereColumn("I_ID").isEqualTo(QueryBuilder.bindMarker("ID"))
+                        .whereColumn("C_ID").in(QueryBuilder.bindMarker("C_IDS"))
                         .build().setConsistencyLevel(ConsistencyLevel.ONE)
         );
+        // Item names come from the process-wide catalog instead of the item table
+        this.itemCatalog = ItemCatalog.getInstance(session);
+        if (Config.ORDER_WINDOW_SIZE > 0) {
+            this.orderWindow = DistrictOrderWindow.getInstance(session);
+        }
     }
 
     public void executeTransaction(int W_ID, int D_ID, int orderNumRange){
-        this.itemsNameMap = new Hashtable<Integer, String>();
-        this.itemsInOrders = new Hashtable<String , Integer>();;
-        this.popularItems = new ArrayList<>();
-        this.customerList = new ArrayList<>();
-        this.orderInfoList = new ArrayList<>();
-        this.popularItemsList = new ArrayList<>();
-        this.searchResult = null;
-        this.orderNumRange = orderNumRange;
-
-        getAllPopularItemsInOrders( W_ID , D_ID );
-        outputPopularItems();
-    }
-
-
-    public void setPrintOut(Row customerInfo , Row orderInfo , String itemPrintOut , int Id){
-        String custName = customerInfo.getUdtValue("C_NAME").getFormattedContents();
-        String time = orderInfo.getInstant("O_ENTRY_D").toString();
-        String order_info = "Order id:" + Id + ",Timestamp:" + time;
-        this.customerList.add(custName);
-        this.orderInfoList.add(order_info);
-        this.popularItemsList.add(itemPrintOut);
-    }
-
-    public void getAllPopularItemsInOrders( int W_ID , int D_ID){
+        //Stage 1: the last orders of the district and their distinct customers
+        DistrictOrderWindow.Orders orders = orderWindow != null
+                ? orderWindow.recentOrders(W_ID, D_ID, orderNumRange)
+                : getOrders(W_ID, D_ID, orderNumRange);
+        Set<Integer> customerIds = new LinkedHashSet<>();
+        for (int i = 0; i < orders.count; i++) {
+            customerIds.add(orders.customerIds[i]);
+        }
 
-        ResultSet all_orders = session.execute(this.getOrders.bind().setInt("W_ID" , W_ID).setInt("D_ID" , D_ID).setInt("orderRange" , this.orderNumRange));
+        //Stage 2: the names of all these customers in one read
+        Map<Integer, String> customerNames = getCustomerNames(W_ID, D_ID, customerIds);
 
-        for (Row order: all_orders){
-            int C_ID = order.getInt("O_C_ID");
-            this.searchResult = session.execute(customerInfoQuery.bind()
-                    .setInt("W_ID" , W_ID)
-                    .setInt("D_ID" , D_ID)
-                    .setInt("C_ID" , C_ID));
-            Row customerInfo = this.searchResult.one();
-            List<UdtValue> orderLines = order.getList("ORDER_LINES" , UdtValue.class);
-            Hashtable<String , Integer> itemStats = new Hashtable<String , Integer>();
-            for (UdtValue orderLine : orderLines){
-                int Item_ID = orderLine.getInt("OL_I_ID");
-                String itemName;
-                //If item is present in map, get it from map instead of querying the item table.
-                if (itemsNameMap.containsKey(Item_ID)){
-                    itemName = itemsNameMap.get(Item_ID);
-                }
-                else {
-                    ResultSet item = session.execute(itemQuery.bind().setInt("ID", Item_ID));
-                    Row item_result = item.one();
-                    itemName = item_result.getString("I_NAME");
-                    //add item name to dictionary
-                    itemsNameMap.put(Item_ID , itemName);
-                }
-                int quantityOrdered = orderLine.getBigDecimal("OL_QUANTITY").intValue();
-                itemStats.put(itemName , quantityOrdered);
+        //Stage 3: most ordered item(s) of every order, and in how many orders each of them appears
+        StringBuilder output = new StringBuilder();
+        IntIntMap itemQuantities = new IntIntMap();
+        IntIntMap itemsInOrders = new IntIntMap(orders.count * 4);
+        List<Integer> popularItems = new ArrayList<>();
+        for (int i = 0; i < orders.count; i++) {
+            int[] itemIds = orders.itemIds[i];
+            itemQuantities.clear();
+            int maxQuantity = Integer.MIN_VALUE;
+            for (int j = 0; j < itemIds.length; j++) {
+                // A repeated item keeps its last quantity.
+                itemQuantities.put(itemIds[j], orders.quantities[i][j]);
+            }
+            for (int itemId : itemIds) {
+                maxQuantity = Math.max(maxQuantity, itemQuantities.get(itemId, 0));
             }
-            int maxValueInMap = Collections.max(itemStats.values());
-            Set<String> setOfItems = itemStats.keySet();
-            String itemPrintOut = "";
-            for (String key: setOfItems) {
-                // if item has the highest ordered quantity in order, add it to popular items
+            StringBuilder itemPrintOut = new StringBuilder();
+            for (int j = 0; j < itemIds.length; j++) {
+                int itemId = itemIds[j];
+                if (indexOf(itemIds, itemId) < j) {
+                    // Already counted at its first order line.
+                    continue;
+                }
                 // there might be a case where multiple popular items can appear (same quantity ordered value)
-                if (itemStats.get(key) == maxValueInMap) {
-                    if (!popularItems.contains(key)){
-                        popularItems.add(key);
+                if (itemQuantities.get(itemId, 0) == maxQuantity) {
+                    if (!popularItems.contains(itemId)) {
+                        popularItems.add(itemId);
                     }
-                    itemPrintOut = itemPrintOut +  "Pop Item:" + key +  ",Qty:" +  maxValueInMap + ",";
-                }
-                // if item appear in order, increment itemAppearance count. This is used to calculate popular item percentage later
-                if (itemsInOrders.containsKey(key)) {
-                    int currentCount = itemsInOrders.get(key);
-                    itemsInOrders.put(key , currentCount + 1);
-                }
-                else {
-                    itemsInOrders.put(key , 1);
+                    itemPrintOut.append("Pop Item:").append(itemCatalog.name(itemId)).append(",Qty:").append(maxQuantity).append(",");
                 }
+                // used to calculate popular item percentage later
+                itemsInOrders.add(itemId, 1);
             }
-            setPrintOut(customerInfo , order , itemPrintOut , order.getInt("O_ID"));
+            output.append(customerNames.get(orders.customerIds[i])).append(System.lineSeparator());
+            output.append("Order id:").append(orders.orderIds[i])
+                    .append(",Timestamp:").append(Instant.ofEpochMilli(orders.entryDates[i]).toString())
+                    .append(System.lineSeparator());
+            output.append(itemPrintOut).append(System.lineSeparator());
+        }
+        for (int itemId : popularItems) {
+            double percentage = (itemsInOrders.get(itemId, 0) / (double) orderNumRange) * 100.00;
+            output.append("Pop item: ").append(itemCatalog.name(itemId)).append(",").append(" %: ").append(percentage)
+                    .append(System.lineSeparator());
         }
+        out.print(output.toString());
     }
 
-    public void outputPopularItems() {
-        for (int i = 0 ; i < this.customerList.size(); i++){
-            System.out.println(customerList.get(i));
-            System.out.println(orderInfoList.get(i));
-            System.out.println(popularItemsList.get(i));
+    private DistrictOrderWindow.Orders getOrders(int W_ID, int D_ID, int orderNumRange) {
+        DistrictOrderWindow.Orders orders = new DistrictOrderWindow.Orders(orderNumRange);
+        for (Row order : session.execute(this.getOrders.bind().setInt("W_ID" , W_ID).setInt("D_ID" , D_ID).setInt("orderRange" , orderNumRange))) {
+            List<UdtValue> orderLines = order.getList("ORDER_LINES" , UdtValue.class);
+            int[] itemIds = new int[orderLines.size()];
+            int[] quantities = new int[orderLines.size()];
+            for (int i = 0; i < itemIds.length; i++) {
+                itemIds[i] = orderLines.get(i).getInt("OL_I_ID");
+                quantities[i] = orderLines.get(i).getBigDecimal("OL_QUANTITY").intValue();
+            }
+            orders.add(order.getInt("O_ID"), order.getInt("O_C_ID"), order.getInstant("O_ENTRY_D").toEpochMilli(), itemIds, quantities);
         }
-        for (String popular_items: popularItems){
-            double percentage = ( itemsInOrders.get(popular_items)/ (double) this.orderNumRange) * 100.00;
-            System.out.println("Pop item: " + popular_items + "," + " %: " + percentage);
+        return orders;
+    }
+
+    private Map<Integer, String> getCustomerNames(int W_ID, int D_ID, Set<Integer> customerIds) {
+        Map<Integer, String> customerNames = new HashMap<>();
+        if (customerIds.isEmpty()) {
+            return customerNames;
+        }
+        CompletionStage<AsyncResultSet> stage = session.executeAsync(customerNamesQuery.bind()
+                .setInt("W_ID", W_ID)
+                .setInt("D_ID", D_ID)
+                .setList("C_IDS", new ArrayList<>(customerIds), Integer.class));
+        for (AsyncResultSet page = Util.join(stage); page != null;
+                page = page.hasMorePages() ? Util.join(page.fetchNextPage()) : null) {
+            for (Row row : page.currentPage()) {
+                customerNames.put(row.getInt("C_ID"), row.getUdtValue("C_NAME").getFormattedContents());
+            }
         }
+        return customerNames;
+    }
 
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
@@ -0,0 +1,235 @@
+package wholesale;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+
+import wholesale.Constants.Order;
+import wholesale.Constants.TableName;
+
+/**
+ * Inverted index from item id to the orders containing it, shared by every client thread of the
+ * process. It is built with one scan of the order table and then kept up to date by the
+ * {@link NewOrderTransaction}s of this process; orders placed by other nodes after the scan are
+ * not seen.
+ *
+ * An order is identified by a long packing W_ID, D_ID, C_ID and O_ID, see {@link #orderKey}.
+ * Posting lists are appended under the list's monitor and read without locking.
+ */
+public final class RelatedCustomerIndex {
+
+    private static final int ORDER_ID_BITS = 27;
+    private static final int CUSTOMER_ID_BITS = 20;
+    private static final int DISTRICT_ID_BITS = 5;
+    private static final int CUSTOMER_SHIFT = ORDER_ID_BITS;
+    private static final int DISTRICT_SHIFT = CUSTOMER_SHIFT + CUSTOMER_ID_BITS;
+    private static final int WAREHOUSE_SHIFT = DISTRICT_SHIFT + DISTRICT_ID_BITS;
+
+    private static RelatedCustomerIndex INSTANCE;
+
+    private volatile PostingList[] postings = new PostingList[0];
+    // Distinct sorted item ids of every order, by customer key.
+    private final ConcurrentHashMap<Long, List<int[]>> customerOrders = new ConcurrentHashMap<>();
+
+    public static synchronized RelatedCustomerIndex getInstance(CqlSession session) {
+        if (INSTANCE == null) {
+            RelatedCustomerIndex index = new RelatedCustomerIndex();
+            index.load(session);
+            INSTANCE = index;
+        }
+        return INSTANCE;
+    }
+
+    private RelatedCustomerIndex() {
+
+    }
+
+    private void load(CqlSession session) {
+        long startNanos = System.nanoTime();
+        int count = 0;
+        for (Row row : session.execute(SimpleStatement.newInstance(String.format("SELECT %s, %s, %s, %s, %s FROM %s",
+                Order.WAREHOUSE_ID, Order.DISTRICT_ID, Order.CUSTOMER_ID, Order.ORDER_ID, Order.ITEM_IDS, TableName.ORDER))
+                .setConsistencyLevel(ConsistencyLevel.ONE))) {
+            List<Integer> itemIds = row.getList(Order.ITEM_IDS, Integer.class);
+            int[] items = new int[itemIds.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = itemIds.get(i);
+            }
+            addOrder(row.getInt(Order.WAREHOUSE_ID), row.getInt(Order.DISTRICT_ID), row.getInt(Order.CUSTOMER_ID),
+                    row.getInt(Order.ORDER_ID), items);
+            ++count;
+        }
+        double secs = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        Util.debugLog(RelatedCustomerIndex.class.getSimpleName(), String.format("Indexed %d orders in %.1fs", count, secs));
+    }
+
+    public void addOrder(int warehouseId, int districtId, int customerId, int orderId, int[] itemIds) {
+        int[] items = sortedDistinct(itemIds);
+        long key = orderKey(warehouseId, districtId, customerId, orderId);
+        for (int itemId : items) {
+            postingList(itemId).add(key);
+        }
+        customerOrders.computeIfAbsent(Util.customerKey(warehouseId, districtId, customerId), k -> new CopyOnWriteArrayList<>())
+            .add(items);
+    }
+
+    /**
+     * Calls {@code consumer} once for every pair of an order of the given customer and an order of
+     * a customer of another warehouse sharing at least two items with it.
+     */
+    public void findRelated(int warehouseId, int districtId, int customerId, RelatedCustomerConsumer consumer) {
+        List<int[]> orders = customerOrders.get(Util.customerKey(warehouseId, districtId, customerId));
+        if (orders == null) {
+            return;
+        }
+        OrderCounter counter = new OrderCounter();
+        PostingList[] current = postings;
+        for (int[] items : orders) {
+            counter.clear();
+            for (int itemId : items) {
+                if (itemId < 0 || itemId >= current.length || current[itemId] == null) {
+                    continue;
+                }
+                PostingList list = current[itemId];
+                int size = list.size;
+                long[] keys = list.keys;
+                for (int i = 0; i < size; i++) {
+                    long key = keys[i];
+                    if (warehouseOf(key) != warehouseId && counter.increment(key) == 2) {
+                        consumer.accept(warehouseOf(key), districtOf(key), customerOf(key));
+                    }
+                }
+            }
+        }
+    }
+
+    public interface RelatedCustomerConsumer {
+
+        void accept(int warehouseId, int districtId, int customerId);
+    }
+
+    private static long orderKey(int warehouseId, int districtId, int customerId, int orderId) {
+        return ((long) warehouseId << WAREHOUSE_SHIFT) | ((long) districtId << DISTRICT_SHIFT)
+            | ((long) customerId << CUSTOMER_SHIFT) | orderId;
+    }
+
+    private static int warehouseOf(long key) {
+        return (int) (key >>> WAREHOUSE_SHIFT);
+    }
+
+    private static int districtOf(long key) {
+        return (int) (key >>> DISTRICT_SHIFT) & ((1 << DISTRICT_ID_BITS) - 1);
+    }
+
+    private static int customerOf(long key) {
+        return (int) (key >>> CUSTOMER_SHIFT) & ((1 << CUSTOMER_ID_BITS) - 1);
+    }
+
+    private PostingList postingList(int itemId) {
+        PostingList[] current = postings;
+        if (itemId < current.length && current[itemId] != null) {
+            return current[itemId];
+        }
+        synchronized (this) {
+            current = postings;
+            if (itemId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(itemId + 1, current.length * 2));
+            }
+            if (current[itemId] == null) {
+                current[itemId] = new PostingList();
+            }
+            // Republish through the volatile field so readers see the new slot.
+            postings = current;
+            return current[itemId];
+        }
+    }
+
+    static int[] sortedDistinct(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * Append-only list of order keys. A reader takes {@link #size} before {@link #keys}, so every
+     * key below that size is already in the array it sees.
+     */
+    private static final class PostingList {
+        volatile long[] keys = new long[4];
+        volatile int size;
+
+        synchronized void add(long key) {
+            long[] current = keys;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = key;
+            keys = current;
+            size = size + 1;
+        }
+    }
+
+    /**
+     * Open-addressing map from order key to the number of shared items, reused per customer order.
+     */
+    private static final class OrderCounter {
+        private long[] keys = new long[256];
+        private int[] counts = new int[256];
+        private int size;
+
+        int increment(long key) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            // Keys are never 0: warehouse ids start at 1.
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 29)) * 0x9E3779B9 & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            return ++counts[slot];
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(keys, 0);
+                Arrays.fill(counts, 0);
+                size = 0;
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) (oldKeys[i] ^ (oldKeys[i] >>> 29)) * 0x9E3779B9 & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
@@ -9,21 +9,38 @@ import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
 import wholesale.Constants.TableName;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public class RelatedCustomerTransaction {
     private CqlSession session;
+    private TransactionOutput out;
 
     private List<List<Integer>> customerOrders;
     private List<List<Integer>> relatedCustomer;
     private List<Row> all_cust_orders;
     private PreparedStatement allCustOrders;
     private ResultSet searchResult;
+    private RelatedCustomerIndex index;
+    private PreparedStatement customerOrderItems;
+    private TokenRangeScanner orderScanner;
 
-    public RelatedCustomerTransaction(CqlSession session){
+    public RelatedCustomerTransaction(CqlSession session, TransactionOutput out){
         this.session = session;
+        this.out = out;
+        if (Config.RELATED_CUSTOMER_INDEX) {
+            this.index = RelatedCustomerIndex.getInstance(session);
+        } else if (Config.RELATED_CUSTOMER_STREAM) {
+            this.customerOrderItems = session.prepare(QueryBuilder.selectFrom(TableName.ORDER).column("ITEM_IDS")
+                    .whereColumn("O_W_ID").isEqualTo(QueryBuilder.bindMarker())
+                    .whereColumn("O_D_ID").isEqualTo(QueryBuilder.bindMarker())
+                    .whereColumn("O_C_ID").isEqualTo(QueryBuilder.bindMarker())
+                    .build().setConsistencyLevel(ConsistencyLevel.ONE));
+            this.orderScanner = new TokenRangeScanner(session, TableName.ORDER, "O_W_ID, O_D_ID",
+                    "O_W_ID, O_D_ID, O_C_ID, ITEM_IDS");
+        }
         //Prepare query  to get all orders from the materialized view order table
         this.allCustOrders = session.prepare(QueryBuilder.selectFrom(TableName.ORDER_MAT_VIEW)
                 .columns( "O_W_ID" , "O_D_ID" , "O_C_ID" , "ITEM_IDS" ).build());
@@ -35,6 +52,16 @@ public class RelatedCustomerTransaction {
         this.relatedCustomer = new ArrayList<List<Integer>>();;
         this.all_cust_orders = new ArrayList<>();
 
+        if (index != null) {
+            index.findRelated(W_ID, D_ID, C_ID, (w, d, c) -> this.relatedCustomer.add(Arrays.asList(w, d, c)));
+            outputRelatedCustomers();
+            return;
+        }
+        if (orderScanner != null) {
+            scanRelatedCustomers(W_ID, D_ID, C_ID);
+            outputRelatedCustomers();
+            return;
+        }
         buildListOfCustOrders( W_ID , D_ID , C_ID);
         getRelatedCustomer(W_ID , C_ID);
         outputRelatedCustomers();
@@ -74,10 +101,58 @@ public class RelatedCustomerTransaction {
         }
     }
 
+    /**
+     * Streams every order through the token range scanner and compares it with the customer's
+     * orders, kept as sorted distinct item ids. Only matches are kept.
+     */
+    public void scanRelatedCustomers(int W_ID, int D_ID, int C_ID) {
+        List<int[]> customerItems = new ArrayList<>();
+        for (Row order : session.execute(customerOrderItems.bind(W_ID, D_ID, C_ID))) {
+            List<Integer> itemIds = order.getList("ITEM_IDS", Integer.class);
+            int[] items = new int[itemIds.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = itemIds.get(i);
+            }
+            customerItems.add(RelatedCustomerIndex.sortedDistinct(items));
+        }
+        if (customerItems.isEmpty()) {
+            return;
+        }
+        List<List<List<Integer>>> matches = orderScanner.scan(ArrayList::new, (rangeMatches, order) -> {
+            int warehouseId = order.getInt("O_W_ID");
+            if (warehouseId == W_ID) {
+                return;
+            }
+            List<Integer> itemIds = order.getList("ITEM_IDS", Integer.class);
+            for (int[] items : customerItems) {
+                if (countCommon(items, itemIds) >= 2) {
+                    rangeMatches.add(Arrays.asList(warehouseId, order.getInt("O_D_ID"), order.getInt("O_C_ID")));
+                }
+            }
+        });
+        for (List<List<Integer>> rangeMatches : matches) {
+            this.relatedCustomer.addAll(rangeMatches);
+        }
+    }
+
+    /**
+     * Number of distinct values of {@code itemIds} found in the sorted array {@code sortedItems}.
+     */
+    private static int countCommon(int[] sortedItems, List<Integer> itemIds) {
+        int common = 0;
+        for (int i = 0; i < itemIds.size(); i++) {
+            int itemId = itemIds.get(i);
+            if (Arrays.binarySearch(sortedItems, itemId) >= 0 && itemIds.indexOf(itemId) == i) {
+                common++;
+            }
+        }
+        return common;
+    }
+
     public void outputRelatedCustomers(){
-        System.out.println("Related Customer: ");
+        out.println("Related Customer: ");
         for (List<Integer> related: this.relatedCustomer){
-            System.out.println("O_W_ID :" + related.get(0)  + ", O_D_ID: " + related.get(1) + ", O_C_ID: " + related.get(2));
+            out.println("O_W_ID :" + related.get(0)  + ", O_D_ID: " + related.get(1) + ", O_C_ID: " + related.get(2));
         }
     }
 
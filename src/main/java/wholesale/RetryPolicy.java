@@ -0,0 +1,105 @@
+package wholesale;
+
+import java.util.Random;
+
+import com.datastax.oss.driver.api.core.AllNodesFailedException;
+import com.datastax.oss.driver.api.core.DriverTimeoutException;
+import com.datastax.oss.driver.api.core.UnsupportedProtocolVersionException;
+import com.datastax.oss.driver.api.core.servererrors.BootstrappingException;
+import com.datastax.oss.driver.api.core.servererrors.OverloadedException;
+import com.datastax.oss.driver.api.core.servererrors.QueryValidationException;
+import com.datastax.oss.driver.api.core.servererrors.ReadTimeoutException;
+import com.datastax.oss.driver.api.core.servererrors.UnavailableException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+
+/**
+ * Decides whether a failed transaction is attempted again and how long the client backs off first.
+ *
+ * Failures are classified with {@link #classify(Throwable, boolean)}, given whether running the
+ * transaction twice leaves the same state as running it once: a write that timed out is only
+ * retried then. Retries wait a random delay between zero and
+ * {@code min(maxBackoff, baseBackoff * 2^(attempt-1))} ("full jitter"), so a single timeout costs
+ * milliseconds rather than seconds and concurrent clients do not retry in lockstep.
+ */
+public class RetryPolicy {
+
+    public enum FailureClass {
+        // Read timeouts, unavailable, overloaded or bootstrapping replicas, no reachable coordinator;
+        // write timeouts only when the transaction is idempotent.
+        TRANSIENT(true),
+        // The transaction ran but was not applied, e.g. the Payment conditional update lost a race.
+        CONTENTION(true),
+        // A write of a transaction that is not idempotent timed out and may have been applied.
+        UNKNOWN_OUTCOME(false),
+        // Anything else, such as codec errors or bugs of the client.
+        OTHER(false),
+        // Invalid or unauthorized queries; retrying cannot succeed.
+        PERMANENT(false);
+
+        public final boolean retryable;
+
+        FailureClass(boolean retryable) {
+            this.retryable = retryable;
+        }
+    }
+
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Random random = new Random();
+
+    public RetryPolicy(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = baseBackoffMillis * 1_000_000;
+        this.maxBackoffNanos = maxBackoffMillis * 1_000_000;
+    }
+
+    public static RetryPolicy fromConfig() {
+        return new RetryPolicy(Config.RETRY_MAX_ATTEMPTS, Config.RETRY_BASE_BACKOFF_MILLIS, Config.RETRY_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Classifies a failed attempt. {@code failure} is null when the transaction completed
+     * without being applied. {@code idempotent} tells whether running the transaction twice
+     * leaves the same state as running it once; a write timeout, on the server or in the
+     * driver, is only retried then.
+     *
+     * An {@link AllNodesFailedException} is retried: the driver only tries another node for a
+     * statement that is not idempotent when the previous one did not run it.
+     */
+    public static FailureClass classify(Throwable failure, boolean idempotent) {
+        if (failure == null) {
+            return FailureClass.CONTENTION;
+        }
+        if (failure instanceof QueryValidationException || failure instanceof UnsupportedProtocolVersionException) {
+            return FailureClass.PERMANENT;
+        }
+        if (failure instanceof WriteTimeoutException || failure instanceof DriverTimeoutException) {
+            return idempotent ? FailureClass.TRANSIENT : FailureClass.UNKNOWN_OUTCOME;
+        }
+        if (failure instanceof UnavailableException || failure instanceof ReadTimeoutException
+                || failure instanceof OverloadedException || failure instanceof BootstrappingException
+                || failure instanceof AllNodesFailedException) {
+            return FailureClass.TRANSIENT;
+        }
+        return FailureClass.OTHER;
+    }
+
+    /**
+     * @param attempts number of attempts made so far, at least 1
+     */
+    public boolean shouldRetry(FailureClass failureClass, int attempts) {
+        return failureClass.retryable && attempts < maxAttempts;
+    }
+
+    /**
+     * Delay before the next attempt after {@code attempts} failed ones, in nanoseconds.
+     */
+    public long backoffNanos(int attempts) {
+        long ceiling = baseBackoffNanos << Math.min(attempts - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffNanos) {
+            ceiling = maxBackoffNanos;
+        }
+        return ceiling <= 0 ? 0 : (long) (random.nextDouble() * ceiling);
+    }
+}
@@ -0,0 +1,215 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.type.DataType;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+import com.datastax.oss.driver.api.core.type.UserDefinedType;
+import com.datastax.oss.driver.api.core.type.codec.TypeCodec;
+
+/**
+ * Formats rows of one statement as {@code COLUMN:value,COLUMN:value,...} lines, each value as a
+ * CQL literal. Column indexes and codecs are resolved from the first row and reused as long as
+ * the rows share its column definitions, and lines are built in one reusable buffer. Text
+ * columns, and user types made of text fields only, are copied from the serialized row without
+ * decoding; other types go through their codec.
+ *
+ * Columns missing from the rows, or whose value the transaction has just changed, are given with
+ * {@link #set}. A value set stays until it is set again. Not thread safe.
+ */
+public final class RowFormatter {
+
+    // Kinds of value; 0 takes the value from the row.
+    private static final byte INT = 1;
+    private static final byte DECIMAL = 2;
+
+    private final String[] columns;
+    // ",COLUMN:" in front of every value, without the comma for the first one.
+    private final String[] prefixes;
+    private final byte[] kinds;
+    private final int[] intValues;
+    private final BigDecimal[] decimalValues;
+    private final StringBuilder line = new StringBuilder(256);
+
+    private ColumnDefinitions definitions;
+    private ProtocolVersion protocolVersion;
+    private int[] indexes;
+    private TypeCodec<Object>[] codecs;
+    // "{field:" and ",field:" of the user types formatted from their serialized fields, else null.
+    private String[][] udtPrefixes;
+    private boolean[] texts;
+
+    public RowFormatter(String... columns) {
+        this.columns = columns.clone();
+        this.prefixes = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            prefixes[i] = (i > 0 ? "," : "") + columns[i] + ":";
+        }
+        this.kinds = new byte[columns.length];
+        this.intValues = new int[columns.length];
+        this.decimalValues = new BigDecimal[columns.length];
+    }
+
+    public RowFormatter set(String column, int value) {
+        int position = position(column);
+        kinds[position] = INT;
+        intValues[position] = value;
+        return this;
+    }
+
+    /**
+     * Sets a decimal column, printed without exponent.
+     */
+    public RowFormatter set(String column, BigDecimal value) {
+        int position = position(column);
+        kinds[position] = DECIMAL;
+        decimalValues[position] = value;
+        return this;
+    }
+
+    /**
+     * Returns the line of {@code row}.
+     */
+    public String format(Row row) {
+        if (row.getColumnDefinitions() != definitions) {
+            compile(row);
+        }
+        line.setLength(0);
+        for (int i = 0; i < columns.length; i++) {
+            line.append(prefixes[i]);
+            switch (kinds[i]) {
+                case INT:
+                    line.append(intValues[i]);
+                    break;
+                case DECIMAL:
+                    line.append(decimalValues[i].toPlainString());
+                    break;
+                default:
+                    if (indexes[i] < 0) {
+                        throw new IllegalArgumentException(columns[i] + " is not a column of the row and was not set");
+                    }
+                    ByteBuffer bytes = row.getBytesUnsafe(indexes[i]);
+                    if (bytes == null && (texts[i] || udtPrefixes[i] != null)) {
+                        line.append("NULL");
+                    } else if (texts[i]) {
+                        appendText(bytes, bytes.position(), bytes.remaining());
+                    } else if (udtPrefixes[i] != null) {
+                        appendTextUdt(bytes, udtPrefixes[i]);
+                    } else {
+                        line.append(codecs[i].format(codecs[i].decode(bytes, protocolVersion)));
+                    }
+            }
+        }
+        return line.toString();
+    }
+
+    public void print(TransactionOutput out, Row row) {
+        out.println(format(row));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void compile(Row row) {
+        ColumnDefinitions rowDefinitions = row.getColumnDefinitions();
+        int[] rowIndexes = new int[columns.length];
+        TypeCodec<Object>[] rowCodecs = new TypeCodec[columns.length];
+        String[][] rowUdtPrefixes = new String[columns.length][];
+        boolean[] rowTexts = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            rowIndexes[i] = rowDefinitions.firstIndexOf(columns[i]);
+            if (rowIndexes[i] >= 0) {
+                DataType type = rowDefinitions.get(rowIndexes[i]).getType();
+                rowCodecs[i] = row.codecRegistry().codecFor(type);
+                rowTexts[i] = isText(type);
+                rowUdtPrefixes[i] = textUdtPrefixes(type);
+            }
+        }
+        this.indexes = rowIndexes;
+        this.codecs = rowCodecs;
+        this.udtPrefixes = rowUdtPrefixes;
+        this.texts = rowTexts;
+        this.protocolVersion = row.protocolVersion();
+        this.definitions = rowDefinitions;
+    }
+
+    private static boolean isText(DataType type) {
+        return type.equals(DataTypes.TEXT) || type.equals(DataTypes.ASCII);
+    }
+
+    private static String[] textUdtPrefixes(DataType type) {
+        if (!(type instanceof UserDefinedType)) {
+            return null;
+        }
+        UserDefinedType udt = (UserDefinedType) type;
+        List<DataType> fieldTypes = udt.getFieldTypes();
+        String[] prefixes = new String[fieldTypes.size()];
+        for (int i = 0; i < prefixes.length; i++) {
+            if (!isText(fieldTypes.get(i))) {
+                return null;
+            }
+            prefixes[i] = (i > 0 ? "," : "{") + udt.getFieldNames().get(i).asCql(true) + ":";
+        }
+        return prefixes;
+    }
+
+    /**
+     * Appends a serialized user type the way its codec formats it. Fields missing at the end of
+     * the value are null.
+     */
+    private void appendTextUdt(ByteBuffer bytes, String[] prefixes) {
+        int offset = bytes.position();
+        for (String prefix : prefixes) {
+            line.append(prefix);
+            int length = offset + 4 <= bytes.limit() ? bytes.getInt(offset) : -1;
+            offset += 4;
+            if (length < 0) {
+                line.append("NULL");
+            } else {
+                appendText(bytes, offset, length);
+                offset += length;
+            }
+        }
+        if (prefixes.length == 0) {
+            line.append('{');
+        }
+        line.append('}');
+    }
+
+    /**
+     * Appends UTF-8 text quoted as a CQL literal, like the text codec.
+     */
+    private void appendText(ByteBuffer bytes, int offset, int length) {
+        line.append('\'');
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes.get(i);
+            if (b < 0) {
+                // Not ASCII: decode the rest at once.
+                byte[] rest = new byte[offset + length - i];
+                for (int j = 0; j < rest.length; j++) {
+                    rest[j] = bytes.get(i + j);
+                }
+                line.append(new String(rest, StandardCharsets.UTF_8).replace("'", "''"));
+                break;
+            }
+            if (b == '\'') {
+                line.append('\'');
+            }
+            line.append((char) b);
+        }
+        line.append('\'');
+    }
+
+    private int position(String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(column + " is not formatted");
+    }
+}
@@ -6,7 +6,11 @@ public class Setup {
     
     public static void main(String[] args) {
         try (CqlSession session = CqlSession.builder().build()) {
-            DatabaseManager.setup(session, Constants.KEYSPACE_NAME);
+            if (args.length > 0 && "load".equals(args[0])) {
+                DatabaseManager.loadData(session, Constants.KEYSPACE_NAME);
+            } else {
+                DatabaseManager.setup(session, Constants.KEYSPACE_NAME);
+            }
         }
     }
 }
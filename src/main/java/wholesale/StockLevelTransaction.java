@@ -2,6 +2,7 @@ package wholesale;
 
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
@@ -9,19 +10,38 @@ import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
 import wholesale.Constants.TableName;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
 public class StockLevelTransaction {
     private CqlSession session;
+    private TransactionOutput out;
     private int stockThreshold;
     private ResultSet searchResult;
     private PreparedStatement getOrders;
     private PreparedStatement stockQuery;
+    private PreparedStatement stockChunkQuery;
+    private final int stockChunkSize;
+    private DistrictOrderWindow orderWindow;
 
-    public StockLevelTransaction(CqlSession session ) {
+    public StockLevelTransaction(CqlSession session, TransactionOutput out) {
+        this(session, Config.STOCK_LEVEL_CHUNK_SIZE, out);
+    }
+
+    /**
+     * @param stockChunkSize items read by one stock query, 0 to read them one at a time
+     */
+    public StockLevelTransaction(CqlSession session, int stockChunkSize, TransactionOutput out) {
         this.session = session;
+        this.out = out;
+        this.stockChunkSize = stockChunkSize;
+        if (Config.ORDER_WINDOW_SIZE > 0) {
+            this.orderWindow = DistrictOrderWindow.getInstance(session);
+        }
         //Prepare query to get first N orders from materialized view order table. (table is arranged in DESC order_id)
         this.getOrders = session.prepare(
                 QueryBuilder.selectFrom(TableName.ORDER_MAT_VIEW).columns("ITEM_IDS")
@@ -37,6 +57,13 @@ public class StockLevelTransaction {
                         .whereColumn("S_I_ID").isEqualTo(QueryBuilder.bindMarker("I_ID"))
                         .build().setConsistencyLevel(ConsistencyLevel.ONE)
         );
+        //Prepare query to get the stock of several items of one warehouse partition at once
+        this.stockChunkQuery = session.prepare(
+                QueryBuilder.selectFrom(TableName.STOCK).columns("S_I_ID", "S_QUANTITY")
+                        .whereColumn("S_W_ID").isEqualTo(QueryBuilder.bindMarker("W_ID"))
+                        .whereColumn("S_I_ID").in(QueryBuilder.bindMarker("I_IDS"))
+                        .build().setConsistencyLevel(ConsistencyLevel.ONE)
+        );
     }
 
     public void executeTransaction(int W_ID, int D_ID  , int stockThreshold , int orderRange){
@@ -47,6 +74,16 @@ public class StockLevelTransaction {
     }
 
     public Set<Integer> getAllItemInOrders(PreparedStatement ordersQuery , int W_ID , int D_ID , int orderRange){
+        if (orderWindow != null) {
+            DistrictOrderWindow.Orders orders = orderWindow.recentOrders(W_ID, D_ID, orderRange);
+            Set<Integer> items = new HashSet<>();
+            for (int i = 0; i < orders.count; i++) {
+                for (int itemID : orders.itemIds[i]) {
+                    items.add(itemID);
+                }
+            }
+            return items;
+        }
         //Step 1: Get latest order number from district table
         ResultSet res = session.execute(ordersQuery.bind().setInt("W_ID" , W_ID).setInt("D_ID" , D_ID).setInt("orderRange" , orderRange));
         Set<Integer> items = new HashSet<>();
@@ -60,6 +97,10 @@ public class StockLevelTransaction {
     }
 
     public void checkForItemBelowStockThreshold( Set<Integer> items , int W_ID){
+        if (stockChunkSize > 0) {
+            checkForItemBelowStockThresholdInChunks(items, W_ID);
+            return;
+        }
         //Step 3: print out all the items below the specified stock threshold
         for (int itemID: items) {
             ResultSet temp = session.execute(this.stockQuery.bind()
@@ -67,8 +108,51 @@ public class StockLevelTransaction {
                     .setInt("I_ID" , itemID));
             int stockQuantity = temp.one().getInt("S_QUANTITY");
             if (stockQuantity < this.stockThreshold) {
-                System.out.println("ItemID: " + itemID + " has a stock quantity of " + stockQuantity);
+                out.println("ItemID: " + itemID + " has a stock quantity of " + stockQuantity);
             }
         }
     }
+
+    /**
+     * Reads the stock of the items with one IN query per chunk, all chunks in flight at once. S_I_ID
+     * is a clustering column, so every chunk stays inside the S_W_ID partition.
+     */
+    private void checkForItemBelowStockThresholdInChunks(Set<Integer> items, int W_ID) {
+        List<CompletionStage<AsyncResultSet>> chunks = new ArrayList<>();
+        List<Integer> chunk = new ArrayList<>(stockChunkSize);
+        for (int itemID : items) {
+            chunk.add(itemID);
+            if (chunk.size() == stockChunkSize) {
+                chunks.add(readStockChunk(W_ID, chunk));
+                chunk = new ArrayList<>(stockChunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(readStockChunk(W_ID, chunk));
+        }
+
+        Map<Integer, Integer> stockQuantities = new HashMap<>();
+        for (CompletionStage<AsyncResultSet> stage : chunks) {
+            // Only a chunk larger than the page size has more than one page.
+            for (AsyncResultSet page = Util.join(stage); page != null;
+                    page = page.hasMorePages() ? Util.join(page.fetchNextPage()) : null) {
+                for (Row row : page.currentPage()) {
+                    stockQuantities.put(row.getInt("S_I_ID"), row.getInt("S_QUANTITY"));
+                }
+            }
+        }
+        //Step 3: print out all the items below the specified stock threshold, in the same order as the serial path
+        for (int itemID : items) {
+            Integer stockQuantity = stockQuantities.get(itemID);
+            if (stockQuantity != null && stockQuantity < this.stockThreshold) {
+                out.println("ItemID: " + itemID + " has a stock quantity of " + stockQuantity);
+            }
+        }
+    }
+
+    private CompletionStage<AsyncResultSet> readStockChunk(int W_ID, List<Integer> itemIDs) {
+        return session.executeAsync(this.stockChunkQuery.bind()
+                .setInt("W_ID", W_ID)
+                .setList("I_IDS", itemIDs, Integer.class));
+    }
 }
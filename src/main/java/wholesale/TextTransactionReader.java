@@ -0,0 +1,108 @@
+package wholesale;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads the comma separated transaction files in {@link Constants#TRANSACTION_DIR}. The order
+ * lines following an N transaction are read together with it, so parsing never happens while a
+ * transaction is being timed.
+ */
+public class TextTransactionReader implements TransactionReader {
+
+    private final BufferedReader reader;
+
+    public TextTransactionReader(String filePath) throws IOException {
+        this.reader = new BufferedReader(new FileReader(filePath));
+    }
+
+    @Override
+    public boolean next(TransactionRecord record) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return false;
+        }
+        parse(line, record);
+        if (record.type == 'N') {
+            int itemCount = parseInt(line, line.lastIndexOf(',') + 1, line.length());
+            for (int i = 0; i < itemCount; i++) {
+                String itemLine = reader.readLine();
+                int first = itemLine.indexOf(',');
+                int second = itemLine.indexOf(',', first + 1);
+                record.addOrderItem(parseInt(itemLine, 0, first), parseInt(itemLine, first + 1, second),
+                        parseInt(itemLine, second + 1, itemLine.length()));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Parses the first line of a transaction. For N the trailing item count is left out of the
+     * arguments, for P the trailing amount is stored as the payment.
+     */
+    static void parse(String line, TransactionRecord record) {
+        record.reset(line.charAt(0));
+        int fieldCount = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ',') {
+                fieldCount++;
+            }
+        }
+        int integerFields = record.type == 'N' || record.type == 'P' ? fieldCount - 1 : fieldCount;
+        int start = 2;
+        for (int field = 0; field < fieldCount; field++) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            if (field < integerFields) {
+                record.addArg(parseInt(line, start, end));
+            } else if (record.type == 'P') {
+                parseDecimal(line, start, end, record);
+            }
+            start = end + 1;
+        }
+    }
+
+    static int parseInt(CharSequence s, int start, int end) {
+        boolean negative = s.charAt(start) == '-';
+        int value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid integer: " + s.subSequence(start, end));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static void parseDecimal(CharSequence s, int start, int end, TransactionRecord record) {
+        boolean negative = s.charAt(start) == '-';
+        long unscaled = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid decimal: " + s.subSequence(start, end));
+            }
+            unscaled = unscaled * 10 + (c - '0');
+            if (fraction) {
+                scale++;
+            }
+        }
+        record.paymentUnscaled = negative ? -unscaled : unscaled;
+        record.paymentScale = scale;
+    }
+}
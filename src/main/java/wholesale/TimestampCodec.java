@@ -0,0 +1,144 @@
+package wholesale;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Parses the {@code yyyy-MM-dd HH:mm:ss.SSS} timestamps of the data files into epoch millis,
+ * straight from the characters of a line and without allocating. Results are those of a
+ * {@link SimpleDateFormat} with that pattern in the default time zone of the JVM, which the
+ * loaders used before. Thread safe.
+ *
+ * Fields of any width are accepted, as {@link SimpleDateFormat} does, so {@code 12:00:00.5} is
+ * 5 milliseconds past noon. Text the fast path does not cover, such as out of range fields,
+ * years before 1900 or times close to a daylight saving change, is parsed by a
+ * {@link SimpleDateFormat} of the calling thread.
+ */
+public final class TimestampCodec {
+
+    public static final String PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    private static final TimeZone ZONE = TimeZone.getDefault();
+    private static final boolean FIXED_OFFSET = ZONE.toZoneId().getRules().isFixedOffset();
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // Separator in front of the month, day, hour, minute, second and millisecond fields.
+    private static final char[] SEPARATORS = {'-', '-', ' ', ':', ':', '.'};
+
+    private static final ThreadLocal<SimpleDateFormat> FORMATS = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat format = new SimpleDateFormat(PATTERN);
+        format.setTimeZone(ZONE);
+        return format;
+    });
+
+    private TimestampCodec() {
+
+    }
+
+    public static long parse(CharSequence text) throws ParseException {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses the characters of {@code text} from {@code start} to {@code end}, excluded.
+     */
+    public static long parse(CharSequence text, int start, int end) throws ParseException {
+        long millis = parseFast(text, start, end);
+        return millis != Long.MIN_VALUE ? millis : parseSlow(text, start, end);
+    }
+
+    /**
+     * Returns {@code Long.MIN_VALUE} when the text is not a plain timestamp of the pattern.
+     */
+    private static long parseFast(CharSequence text, int start, int end) {
+        int year = 0;
+        int month = 0;
+        int day = 0;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int millisecond = 0;
+        int i = start;
+        for (int field = 0; field < 7; field++) {
+            if (field > 0) {
+                if (i >= end || text.charAt(i) != SEPARATORS[field - 1]) {
+                    return Long.MIN_VALUE;
+                }
+                i++;
+            }
+            int digitsStart = i;
+            int value = 0;
+            while (i < end && i - digitsStart < 9) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                i++;
+            }
+            if (i == digitsStart) {
+                return Long.MIN_VALUE;
+            }
+            switch (field) {
+                case 0: year = value; break;
+                case 1: month = value; break;
+                case 2: day = value; break;
+                case 3: hour = value; break;
+                case 4: minute = value; break;
+                case 5: second = value; break;
+                default: millisecond = value;
+            }
+        }
+        if (i != end || year < 1900 || year > 9999 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59 || millisecond > 999) {
+            return Long.MIN_VALUE;
+        }
+        long local = epochDay(year, month, day) * MILLIS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000 + millisecond;
+        int offset = ZONE.getOffset(local - ZONE.getRawOffset());
+        long millis = local - offset;
+        // Within a day of an offset change the calendar rules for skipped and repeated hours apply.
+        if (!FIXED_OFFSET && (ZONE.getOffset(millis - MILLIS_PER_DAY) != offset || ZONE.getOffset(millis + MILLIS_PER_DAY) != offset)) {
+            return Long.MIN_VALUE;
+        }
+        return millis;
+    }
+
+    private static long parseSlow(CharSequence text, int start, int end) throws ParseException {
+        String value = text.subSequence(start, end).toString();
+        ParsePosition position = new ParsePosition(0);
+        Date date = FORMATS.get().parse(value, position);
+        if (date == null) {
+            throw new ParseException("Unparseable date: \"" + value + "\"", position.getErrorIndex());
+        }
+        return date.getTime();
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days from 1970-01-01 to a date of the proleptic Gregorian calendar.
+     */
+    private static long epochDay(int year, int month, int day) {
+        // Years start in March so that the leap day comes last.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,96 @@
+package wholesale;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+
+/**
+ * Full table scan split into token ranges that are read in parallel with asynchronous paging.
+ * Only the current page of each range in flight is held in memory.
+ *
+ * Every range folds its rows into its own state object, created by the caller, so consumers need
+ * no locking. Rows of one range are consumed in order, on driver threads. {@link #scan} returns
+ * the states of all ranges in token order, for the caller to merge.
+ *
+ * Assumes the Murmur3 partitioner, whose tokens cover the whole long range.
+ */
+public final class TokenRangeScanner {
+
+    private final CqlSession session;
+    private final PreparedStatement selectRange;
+    private final int splits;
+    private final int concurrency;
+
+    /**
+     * @param partitionKey the partition key columns of {@code table}, comma separated
+     * @param columns the selected columns, comma separated
+     */
+    public TokenRangeScanner(CqlSession session, String table, String partitionKey, String columns) {
+        this(session, table, partitionKey, columns, Config.SCAN_SPLITS, Config.SCAN_CONCURRENCY);
+    }
+
+    public TokenRangeScanner(CqlSession session, String table, String partitionKey, String columns, int splits, int concurrency) {
+        this.session = session;
+        this.splits = splits;
+        this.concurrency = concurrency;
+        this.selectRange = session.prepare(String.format("SELECT %s FROM %s WHERE token(%s) >= ? AND token(%s) <= ?",
+                columns, table, partitionKey, partitionKey));
+    }
+
+    public <S> List<S> scan(Supplier<S> stateFactory, BiConsumer<S, Row> consumer) {
+        List<S> states = new ArrayList<>(splits);
+        List<CompletableFuture<Void>> ranges = new ArrayList<>(splits);
+        Semaphore permits = new Semaphore(concurrency);
+        // (2^64 / splits), computed without overflowing.
+        long step = Long.divideUnsigned(-1L, splits);
+        for (int i = 0; i < splits; i++) {
+            // Wraps around while multiplying, the sum is back inside the long range.
+            long start = Long.MIN_VALUE + step * i;
+            long end = i == splits - 1 ? Long.MAX_VALUE : Long.MIN_VALUE + step * (i + 1) - 1;
+            S state = stateFactory.get();
+            states.add(state);
+            permits.acquireUninterruptibly();
+            CompletableFuture<Void> range = new CompletableFuture<>();
+            ranges.add(range);
+            range.whenComplete((result, error) -> permits.release());
+            session.executeAsync(selectRange.bind(start, end)
+                    .setPageSize(Config.SCAN_PAGE_SIZE)
+                    .setConsistencyLevel(ConsistencyLevel.ONE))
+                .whenComplete((page, error) -> onPage(page, error, state, consumer, range));
+        }
+        Util.join(CompletableFuture.allOf(ranges.toArray(new CompletableFuture<?>[0])));
+        return states;
+    }
+
+    private <S> void onPage(AsyncResultSet page, Throwable error, S state, BiConsumer<S, Row> consumer,
+            CompletableFuture<Void> range) {
+        if (error != null) {
+            range.completeExceptionally(error);
+            return;
+        }
+        try {
+            for (Row row : page.currentPage()) {
+                consumer.accept(state, row);
+            }
+        } catch (RuntimeException e) {
+            range.completeExceptionally(e);
+            return;
+        }
+        if (page.hasMorePages()) {
+            CompletionStage<AsyncResultSet> next = page.fetchNextPage();
+            next.whenComplete((nextPage, nextError) -> onPage(nextPage, nextError, state, consumer, range));
+        } else {
+            range.complete(null);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+
+import wholesale.Constants.Customer;
+import wholesale.Constants.TableName;
+
+/**
+ * Customers with the highest balances, shared by every client thread of the process. It is built
+ * with one scan of the customer table, updated by the Payment and Delivery transactions of this
+ * process and rebuilt every {@link Config#TOP_BALANCE_RECONCILE_SECONDS} to pick up the changes
+ * made by other nodes.
+ *
+ * Each warehouse keeps its {@link Config#TOP_BALANCE_DEPTH} best customers and a floor: every
+ * customer it does not keep has a balance of at most the floor. Only the kept customers above the
+ * floor are certain to be ranked right; a warehouse left with too few of them is read again.
+ */
+public final class TopBalanceLeaderboard {
+
+    private static final Comparator<Entry> RANKING = Comparator.comparing((Entry entry) -> entry.balance).reversed()
+        .thenComparingInt(entry -> entry.warehouseId)
+        .thenComparingInt(entry -> entry.districtId)
+        .thenComparingInt(entry -> entry.customerId);
+
+    private static TopBalanceLeaderboard INSTANCE;
+
+    private final CqlSession session;
+    private final PreparedStatement selectWarehousePrepared;
+    private Board[] boards = new Board[0];
+    // Updates made while a reconcile scan runs, replayed on top of its result.
+    private Map<Long, Entry> pending;
+    // Updates made while warehouses are read again by top(), one map per read.
+    private final List<Map<Long, Entry>> rereads = new ArrayList<>();
+
+    public static synchronized TopBalanceLeaderboard getInstance(CqlSession session) {
+        if (INSTANCE == null) {
+            TopBalanceLeaderboard leaderboard = new TopBalanceLeaderboard(session);
+            leaderboard.reconcile();
+            leaderboard.scheduleReconcile();
+            INSTANCE = leaderboard;
+        }
+        return INSTANCE;
+    }
+
+    private TopBalanceLeaderboard(CqlSession session) {
+        this.session = session;
+        this.selectWarehousePrepared = session.prepare(QueryBuilder.selectFrom(TableName.CUSTOMER_ORDER_STATS)
+            .columns(Customer.WAREHOUSE_ID, Customer.DISTRICT_ID, Customer.ID, Customer.BALANCE)
+            .whereColumn(Customer.WAREHOUSE_ID).isEqualTo(QueryBuilder.bindMarker())
+            .build()
+            .setConsistencyLevel(ConsistencyLevel.ONE));
+    }
+
+    /**
+     * Records the balance a transaction of this process has just written.
+     */
+    public synchronized void update(int warehouseId, int districtId, int customerId, BigDecimal balance) {
+        Entry entry = new Entry(warehouseId, districtId, customerId, balance);
+        board(warehouseId).offer(entry);
+        if (pending != null) {
+            pending.put(entry.key(), entry);
+        }
+        for (Map<Long, Entry> updates : rereads) {
+            updates.put(entry.key(), entry);
+        }
+    }
+
+    /**
+     * Returns the {@code count} customers with the highest balances, highest first.
+     */
+    public List<Entry> top(int count) {
+        List<Entry> candidates = new ArrayList<>();
+        List<Integer> stale = new ArrayList<>();
+        synchronized (this) {
+            for (int warehouseId = 0; warehouseId < boards.length; warehouseId++) {
+                Board board = boards[warehouseId];
+                if (board != null && !board.collect(count, candidates, true)) {
+                    stale.add(warehouseId);
+                }
+            }
+        }
+        // Rare, and read without the lock so updates of other clients do not wait for it.
+        for (int warehouseId : stale) {
+            reread(warehouseId, count, candidates);
+        }
+        candidates.sort(RANKING);
+        return candidates.size() > count ? new ArrayList<>(candidates.subList(0, count)) : candidates;
+    }
+
+    /**
+     * Rebuilds the board of a warehouse from the table and adds its first {@code count}
+     * customers to {@code target}. Updates made during the read are replayed on top of it.
+     */
+    private void reread(int warehouseId, int count, List<Entry> target) {
+        Map<Long, Entry> updates = new HashMap<>();
+        synchronized (this) {
+            rereads.add(updates);
+        }
+        Board board = new Board(warehouseId);
+        try {
+            for (Row row : session.execute(selectWarehousePrepared.bind(warehouseId))) {
+                if (!row.isNull(Customer.BALANCE)) {
+                    board.offer(entry(row));
+                }
+            }
+        } finally {
+            synchronized (this) {
+                rereads.remove(updates);
+            }
+        }
+        synchronized (this) {
+            for (Entry entry : updates.values()) {
+                if (entry.warehouseId == warehouseId) {
+                    board.offer(entry);
+                }
+            }
+            boards = Util.ensureCapacity(boards, warehouseId);
+            boards[warehouseId] = board;
+            board.collect(count, target, false);
+        }
+    }
+
+    private void scheduleReconcile() {
+        if (Config.TOP_BALANCE_RECONCILE_SECONDS <= 0) {
+            return;
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "top-balance-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                Util.debugLog(TopBalanceLeaderboard.class.getSimpleName(), "Reconcile failed: " + e);
+            }
+        }, Config.TOP_BALANCE_RECONCILE_SECONDS, Config.TOP_BALANCE_RECONCILE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void reconcile() {
+        long startNanos = System.nanoTime();
+        synchronized (this) {
+            pending = new HashMap<>();
+        }
+        Map<Integer, Board> scanned = new HashMap<>();
+        try {
+            for (Map<Integer, Board> range : new TokenRangeScanner(session, TableName.CUSTOMER_ORDER_STATS, Customer.WAREHOUSE_ID,
+                    String.join(", ", Customer.WAREHOUSE_ID, Customer.DISTRICT_ID, Customer.ID, Customer.BALANCE))
+                    .scan(HashMap<Integer, Board>::new, (boardsOfRange, row) -> {
+                        if (row.isNull(Customer.BALANCE)) {
+                            // Static row of a warehouse without customers.
+                            return;
+                        }
+                        Entry entry = entry(row);
+                        boardsOfRange.computeIfAbsent(entry.warehouseId, Board::new).offer(entry);
+                    })) {
+                // A warehouse is a single partition, so it is never split across ranges.
+                scanned.putAll(range);
+            }
+        } finally {
+            synchronized (this) {
+                Map<Long, Entry> updates = pending;
+                pending = null;
+                if (!scanned.isEmpty()) {
+                    Board[] rebuilt = new Board[0];
+                    for (Board board : scanned.values()) {
+                        rebuilt = Util.ensureCapacity(rebuilt, board.warehouseId);
+                        rebuilt[board.warehouseId] = board;
+                    }
+                    boards = rebuilt;
+                    for (Entry entry : updates.values()) {
+                        board(entry.warehouseId).offer(entry);
+                    }
+                }
+            }
+        }
+        double secs = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        Util.debugLog(TopBalanceLeaderboard.class.getSimpleName(), String.format("Ranked %d warehouses in %.1fs",
+                scanned.size(), secs));
+    }
+
+    private Board board(int warehouseId) {
+        boards = Util.ensureCapacity(boards, warehouseId);
+        if (boards[warehouseId] == null) {
+            boards[warehouseId] = new Board(warehouseId);
+        }
+        return boards[warehouseId];
+    }
+
+    private static Entry entry(Row row) {
+        return new Entry(row.getInt(Customer.WAREHOUSE_ID), row.getInt(Customer.DISTRICT_ID), row.getInt(Customer.ID),
+            row.getBigDecimal(Customer.BALANCE));
+    }
+
+    public static final class Entry {
+        public final int warehouseId;
+        public final int districtId;
+        public final int customerId;
+        public final BigDecimal balance;
+
+        Entry(int warehouseId, int districtId, int customerId, BigDecimal balance) {
+            this.warehouseId = warehouseId;
+            this.districtId = districtId;
+            this.customerId = customerId;
+            this.balance = balance;
+        }
+
+        long key() {
+            return Util.customerKey(warehouseId, districtId, customerId);
+        }
+    }
+
+    /**
+     * Best customers of one warehouse. Not thread safe, guarded by the leaderboard.
+     */
+    private static final class Board {
+        final int warehouseId;
+        final TreeSet<Entry> entries = new TreeSet<>(RANKING);
+        final Map<Long, Entry> byCustomer = new HashMap<>();
+        // Highest balance of a customer that is not kept, null while every customer is kept.
+        BigDecimal floor;
+
+        Board(int warehouseId) {
+            this.warehouseId = warehouseId;
+        }
+
+        void offer(Entry entry) {
+            Entry previous = byCustomer.remove(entry.key());
+            if (previous != null) {
+                entries.remove(previous);
+            }
+            if (floor != null && entry.balance.compareTo(floor) <= 0) {
+                // Still at most the floor, so the floor keeps bounding it.
+                return;
+            }
+            entries.add(entry);
+            byCustomer.put(entry.key(), entry);
+            if (entries.size() > Config.TOP_BALANCE_DEPTH) {
+                Entry evicted = entries.pollLast();
+                byCustomer.remove(evicted.key());
+                if (floor == null || evicted.balance.compareTo(floor) > 0) {
+                    floor = evicted.balance;
+                }
+            }
+        }
+
+        /**
+         * Adds the first {@code count} customers to {@code target}. When {@code exact}, adds
+         * nothing and returns false unless all of them are known to be ranked right.
+         */
+        boolean collect(int count, List<Entry> target, boolean exact) {
+            List<Entry> first = new ArrayList<>(count);
+            for (Entry entry : entries) {
+                if (first.size() == count) {
+                    break;
+                }
+                // A customer that is not kept may tie with one at the floor.
+                if (exact && floor != null && entry.balance.compareTo(floor) <= 0) {
+                    return false;
+                }
+                first.add(entry);
+            }
+            if (exact && first.size() < count && floor != null) {
+                return false;
+            }
+            target.addAll(first);
+            return true;
+        }
+    }
+}
@@ -2,8 +2,8 @@ package wholesale;
 
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.datastax.oss.driver.api.core.ConsistencyLevel;
 import com.datastax.oss.driver.api.core.CqlSession;
@@ -20,17 +20,32 @@ public class TopBalanceTransactionHandler {
     private static final int NUM_CUSTOMERS = 10;
     private static final String[] COLUMNS = {Customer.NAME, Customer.BALANCE, Customer.WAREHOUSE_NAME, Customer.DISTRICT_NAME};
     
+    // C_NAME, W_NAME and D_NAME of a customer, formatted for output. Names never change.
+    private static final ConcurrentHashMap<Long, String[]> FORMATTED_NAMES = new ConcurrentHashMap<>();
+
     private CqlSession session;
+    private TransactionOutput out;
+    private TopBalanceLeaderboard leaderboard;
 
     private PreparedStatement getTopCustomerBalancePrepared;
     private PreparedStatement getCustomerInfoPrepared;
+    private final RowFormatter outputFormatter = new RowFormatter(COLUMNS);
+    private final StringBuilder output = new StringBuilder();
 
-    public TopBalanceTransactionHandler(CqlSession session) {
+    public TopBalanceTransactionHandler(CqlSession session, TransactionOutput out) {
         this.session = session;
+        this.out = out;
+        if (Config.TOP_BALANCE_LEADERBOARD) {
+            this.leaderboard = TopBalanceLeaderboard.getInstance(session);
+        }
         createPreparedStatements();
     }
 
     public void execute() {
+        if (leaderboard != null) {
+            executeFromLeaderboard();
+            return;
+        }
         ResultSet topBalanceCustomers = session.execute(getTopCustomerBalancePrepared.bind());
 
         List<Row> topBalanceCustomerRows = topBalanceCustomers.all();
@@ -47,10 +62,33 @@ public class TopBalanceTransactionHandler {
             ResultSet districtInfoResult = session.execute(getCustomerInfoPrepared.boundStatementBuilder(
                 row.getInt(Customer.WAREHOUSE_ID), row.getInt(Customer.DISTRICT_ID), row.getInt(Customer.ID))
                 .build());
-            HashMap<String, String> others = new HashMap<>();
-            others.put(Customer.BALANCE, row.getBigDecimal(Customer.BALANCE).toPlainString());
-            Util.printTransactionOutput(districtInfoResult.one(), COLUMNS, others);
+            outputFormatter.set(Customer.BALANCE, row.getBigDecimal(Customer.BALANCE)).print(out, districtInfoResult.one());
+        }
+    }
+
+    private void executeFromLeaderboard() {
+        output.setLength(0);
+        for (TopBalanceLeaderboard.Entry entry : leaderboard.top(NUM_CUSTOMERS)) {
+            String[] names = formattedNames(entry.warehouseId, entry.districtId, entry.customerId);
+            output.append(COLUMNS[0]).append(":").append(names[0])
+                .append(",").append(COLUMNS[1]).append(":").append(entry.balance.toPlainString())
+                .append(",").append(COLUMNS[2]).append(":").append(names[1])
+                .append(",").append(COLUMNS[3]).append(":").append(names[2])
+                .append(System.lineSeparator());
+        }
+        out.print(output.toString());
+    }
+
+    private String[] formattedNames(int warehouseId, int districtId, int customerId) {
+        long key = Util.customerKey(warehouseId, districtId, customerId);
+        String[] names = FORMATTED_NAMES.get(key);
+        if (names == null) {
+            Row row = session.execute(getCustomerInfoPrepared.bind(warehouseId, districtId, customerId)).one();
+            names = new String[] {Util.formatColumn(row, Customer.NAME), Util.formatColumn(row, Customer.WAREHOUSE_NAME),
+                Util.formatColumn(row, Customer.DISTRICT_NAME)};
+            FORMATTED_NAMES.put(key, names);
         }
+        return names;
     }
 
     private void createPreparedStatements() {
@@ -0,0 +1,72 @@
+package wholesale;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Compiles the text transaction files into the binary format read by {@link BinaryTransactionReader}.
+ *
+ * Layout: a 4 byte magic number followed by one record per transaction made of the type
+ * character, the number of integer arguments and the arguments, then the amount
+ * (unscaled long, scale byte) for P or the item count and (item, supplier, quantity) triples for N.
+ *
+ * Usage: {@code wholesale.TransactionFileCompiler [file.txt ...]}. Without arguments every
+ * {@code .txt} file in {@link Constants#TRANSACTION_DIR} is compiled.
+ */
+public class TransactionFileCompiler {
+
+    static final int MAGIC = 0x57545831; // "WTX1"
+
+    public static void main(String[] args) throws IOException {
+        String[] files = args;
+        if (files.length == 0) {
+            File[] textFiles = new File(Constants.TRANSACTION_DIR).listFiles((dir, name) -> name.endsWith(".txt"));
+            files = new String[textFiles == null ? 0 : textFiles.length];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = textFiles[i].getPath();
+            }
+        }
+        for (String file : files) {
+            int count = compile(file, binaryPathFor(file));
+            Util.debugLog(TransactionFileCompiler.class.getSimpleName(), String.format("%s: compiled %d transactions", file, count));
+        }
+    }
+
+    static String binaryPathFor(String textFilePath) {
+        return textFilePath.endsWith(".txt")
+            ? textFilePath.substring(0, textFilePath.length() - ".txt".length()) + ".bin"
+            : textFilePath + ".bin";
+    }
+
+    public static int compile(String textFilePath, String binaryFilePath) throws IOException {
+        int count = 0;
+        TransactionRecord record = new TransactionRecord();
+        try (TextTransactionReader reader = new TextTransactionReader(textFilePath);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFilePath), 1 << 16))) {
+            out.writeInt(MAGIC);
+            while (reader.next(record)) {
+                out.writeByte(record.type);
+                out.writeByte(record.argCount);
+                for (int i = 0; i < record.argCount; i++) {
+                    out.writeInt(record.args[i]);
+                }
+                if (record.type == 'P') {
+                    out.writeLong(record.paymentUnscaled);
+                    out.writeByte(record.paymentScale);
+                } else if (record.type == 'N') {
+                    out.writeInt(record.getOrderItems().size());
+                    for (InputOrderItem item : record.getOrderItems()) {
+                        out.writeInt(item.item_ID);
+                        out.writeInt(item.supply_W_ID);
+                        out.writeInt(item.quantity);
+                    }
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
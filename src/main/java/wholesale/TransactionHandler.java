@@ -3,17 +3,13 @@ package wholesale;
 import com.datastax.oss.driver.api.core.AllNodesFailedException;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.metadata.Node;
-import com.datastax.oss.driver.api.core.servererrors.QueryExecutionException;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
 import java.util.Map.Entry;
+import java.util.concurrent.locks.LockSupport;
 
 public class TransactionHandler {
 
@@ -23,7 +19,7 @@ public class TransactionHandler {
 
     int executedTransactionCount = 0;
     int totalExecutionTimeInSecs = 0;
-    List<Long> transactionLatency = new ArrayList<>();
+    LatencyRecorder transactionLatency;
     NewOrderTransaction newOrder;
     PaymentTransactionHandler payment;
     DeliveryTransactionHandler delivery;
@@ -35,180 +31,70 @@ public class TransactionHandler {
 
     int warehouseId, districtId, customerId;
 
-    public TransactionHandler(CqlSession session, int index, String filePath) {
+    // Set in open-loop mode only.
+    ArrivalSchedule arrivalSchedule;
+    RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+
+    public TransactionHandler(CqlSession session, TransactionOutput out, int index, String filePath, LatencyRecorder transactionLatency) {
         this.logClassName = TransactionHandler.class.getSimpleName() + "/" + index;
         this.session = session;
         this.filePath = filePath;
-        this.newOrder = new NewOrderTransaction(this.session);
-        this.payment = new PaymentTransactionHandler(session);
+        this.transactionLatency = transactionLatency;
+        this.newOrder = new NewOrderTransaction(this.session, out);
+        this.payment = new PaymentTransactionHandler(session, out);
         this.delivery = new DeliveryTransactionHandler(session);
-        this.orderStatus = new OrderStatusTransaction(this.session);
-        this.stockLevel = new StockLevelTransaction(session);
-        this.popularItem = new PopularItemsTransaction(session);
-        this.topBalance = new TopBalanceTransactionHandler(session);
-        this.relatedCustomer = new RelatedCustomerTransaction(session);
+        this.orderStatus = new OrderStatusTransaction(this.session, out);
+        this.stockLevel = new StockLevelTransaction(session, out);
+        this.popularItem = new PopularItemsTransaction(session, out);
+        this.topBalance = new TopBalanceTransactionHandler(session, out);
+        this.relatedCustomer = new RelatedCustomerTransaction(session, out);
+        this.arrivalSchedule = ArrivalSchedule.fromConfig(index);
     }
 
     public Measurement processTransactions() {
         Util.debugLog(logClassName, "Started processing");
         int transactionCount = 0;
-        Random r = new Random();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            for (String line; (line = br.readLine()) != null;) {
-                String[] values = line.split(",");
-                boolean transactionResult = true;
-                int retry = 2;
-                long st = System.currentTimeMillis();
-                switch(values[0]) {
-                    case "N":
-                        int itemCount = Integer.parseInt(values[values.length - 1]);
-                        List<InputOrderItem> orderItems = new ArrayList<>();
-                        for(int i=0;i<itemCount;i++) {
-                            String [] orderItemsString = br.readLine().split(",");
-                            InputOrderItem item = new InputOrderItem(Integer.parseInt(orderItemsString[0]),
-                                    Integer.parseInt(orderItemsString[1]), Integer.parseInt(orderItemsString[2]));
-                            orderItems.add(item);
-                        }
-                        customerId = Integer.parseInt(values[1]);
-                        warehouseId = Integer.parseInt(values[2]);
-                        districtId = Integer.parseInt(values[3]);
-                        while (retry > 0) {
-                            try {
-                                transactionResult = newOrder.executeTransaction(customerId, warehouseId, districtId, orderItems);
-                            } catch (Exception e) {
-                                Util.debugLog(logClassName, String.format("Retrying #%d of type %s. Reason: %s", transactionCount, values[0], e.getMessage()));
-                                transactionResult = false;
-                            }
-                            if (transactionResult) {
-                                break;
-                            } else {
-			                    try {
-                                    Thread.sleep((long) r.nextInt(1000) + 1000);
-                                } catch (InterruptedException ignore) {
-                                
-                                }
-			                }
-                            retry--;
-                        }
-                        break;
-                    case "P":
-                        warehouseId = Integer.parseInt(values[1]);
-                        districtId = Integer.parseInt(values[2]);
-                        customerId = Integer.parseInt(values[3]);
-                        BigDecimal paymentAmt = new BigDecimal(values[4]);
-                        while (retry > 0) {
-                            try {
-                                transactionResult = payment.execute(warehouseId, districtId, customerId, paymentAmt);
-                            } catch (Exception e) {
-                                Util.debugLog(logClassName, String.format("Retrying #%d of type %s. Reason: %s", transactionCount, values[0], e.getMessage()));
-                                transactionResult = false;
-                            }
-                            if (transactionResult) {
-                                break;
-                            } else {
-			                    try {
-                                   Thread.sleep((long) r.nextInt(1000) + 1000);
-                                } catch (InterruptedException ignore) {
-                                
-                                }
-                            }
-                            retry--;
-                        }
+        TransactionRecord record = new TransactionRecord();
+        long runStart = System.nanoTime();
+        try (TransactionReader reader = TransactionReader.open(filePath)) {
+            while (reader.next(record)) {
+                // The record is fully decoded here, so parsing stays out of the measured latency.
+                char type = record.getType();
+                int[] values = record.args;
+                BigDecimal paymentAmt = type == 'P' ? record.getPayment() : null;
+                List<InputOrderItem> orderItems = record.getOrderItems();
+                boolean transactionResult = false;
+                // In open-loop mode latency counts from the intended start, including any time spent behind schedule.
+                long st = arrivalSchedule != null ? arrivalSchedule.awaitNext() : System.nanoTime();
+                for (int attempts = 1; ; attempts++) {
+                    Exception failure = null;
+                    try {
+                        transactionResult = execute(type, values, paymentAmt, orderItems);
+                    } catch (Exception e) {
+                        failure = e;
+                        transactionResult = false;
+                    }
+                    if (transactionResult) {
                         break;
-                    case "D":
-                        warehouseId = Integer.parseInt(values[1]);
-                        int carrier_id = Integer.parseInt(values[2]);
-                        while (retry > 0) {
-                            try {
-                                transactionResult = delivery.execute(warehouseId, carrier_id);
-                            }catch (Exception e) {
-                                Util.debugLog(logClassName, String.format("Retrying #%d of type %s. Reason: %s", transactionCount, values[0], e.getMessage()));
-                                transactionResult = false;
-                            }
-                            if (transactionResult) {
-                                break;
-                            } else {
-                                try {
-                                   Thread.sleep((long) r.nextInt(1000) + 1000);
-                                } catch (InterruptedException ignore) {
-                                
-                                }
-                            }
-                            retry--;
-                        }
-                        break;
-                    default:
-                        while (retry > 0) {
-                            transactionResult = true;
-                            try {
-                                switch (values[0]) {
-                                    case "O":
-                                        orderStatus.executeTransaction(Integer.parseInt(values[1]), Integer.parseInt(values[2]),
-                                                Integer.parseInt(values[3]));
-                                        break;
-                                    case "S":
-                                        stockLevel.executeTransaction(Integer.parseInt(values[1]) , Integer.parseInt(values[2]) ,
-                                                Integer.parseInt(values[3]) , Integer.parseInt(values[4]));
-                                        break;
-                                    case "I":
-                                        popularItem.executeTransaction(Integer.parseInt(values[1]) , Integer.parseInt(values[2]) ,
-                                                Integer.parseInt(values[3]));
-                                        break;
-                                    case "T":
-                                        topBalance.execute();
-                                        break;
-                                    case "R":
-                                        relatedCustomer.executeTransaction(Integer.parseInt(values[1]) , Integer.parseInt(values[2]) ,
-                                                Integer.parseInt(values[3]));
-                                        break;
-                                    default:
-                                        // log error
-                                        break;
-                                }
-                            } catch(AllNodesFailedException e) {
-                                Util.debugLog(logClassName, String.format("Retrying #%d of type %s. Reason: AllNodesFailedException", transactionCount, values[0]));
-                                Iterator<Entry<Node, List<Throwable>>> iterator = e.getAllErrors().entrySet().iterator();
-                                StringBuilder details = new StringBuilder();
-                                while (iterator.hasNext()) {
-                                    Entry<Node, List<Throwable>> entry = iterator.next();
-                                    details.append(entry.getKey()).append(": ").append(entry.getValue());
-                                    for (Throwable t: entry.getValue()) {
-                                        details.append(t.getMessage()).append(System.lineSeparator());
-                                    }
-                                    if (iterator.hasNext()) {
-                                        details.append(", ");
-                                    }
-                                }
-                                Util.debugLog(logClassName, details.toString());
-                                transactionResult = false;
-                            } catch(QueryExecutionException e) {
-                                String cause = e.getCause() != null ? e.getCause().getMessage() : "";
-                                Util.debugLog(logClassName, String.format("Retrying #%d of type %s. Reason QueryExecutionException: %s; cause by", transactionCount, values[0], e.getMessage(), cause));
-                                transactionResult = false;
-                            } catch(Exception e) {
-                                String cause = e.getCause() != null ? e.getCause().getMessage() : "";
-                                Util.debugLog(logClassName, String.format("Retrying #%d of type %s. Reason: %s cause by", transactionCount, values[0], e.getMessage(), cause));
-                                transactionResult = false;
-                            }
-                            if (transactionResult) {
-                                break;
-                            } else {
-				                try {
-                                    Thread.sleep((long) r.nextInt(1000) + 1000);
-                                } catch (InterruptedException ignore) {
-                                
-                                }
-			                }
-                            retry--;
-                        }
+                    }
+                    RetryPolicy.FailureClass failureClass = RetryPolicy.classify(failure, isIdempotent(type));
+                    boolean retrying = retryPolicy.shouldRetry(failureClass, attempts);
+                    logFailure(transactionCount, type, failureClass, failure, retrying);
+                    if (!retrying) {
                         break;
+                    }
+                    long backoff = retryPolicy.backoffNanos(attempts);
+                    transactionLatency.recordRetry(type, backoff / 1000);
+                    LockSupport.parkNanos(backoff);
                 }
-                long et = System.currentTimeMillis();
-                long executionTime = (et - st);
+                long et = System.nanoTime();
+                long executionTimeMicros = (et - st) / 1000;
 
                 if (transactionResult) {
                     executedTransactionCount++;
-                    transactionLatency.add(executionTime);
+                    transactionLatency.record(type, executionTimeMicros);
+                } else {
+                    transactionLatency.recordFailure(type);
                 }
                 transactionCount += 1;
                 if (transactionCount % 1000 == 0) {
@@ -219,6 +105,83 @@ public class TransactionHandler {
             System.err.println(e.toString());
         }
         Util.debugLog(logClassName, "Completed");
-        return new Measurement(0, executedTransactionCount, transactionLatency);
+        Measurement measurement = new Measurement(0, executedTransactionCount, transactionLatency);
+        measurement.elapsedNanos = System.nanoTime() - runStart;
+        measurement.targetRate = arrivalSchedule != null ? arrivalSchedule.getRatePerSecond() : 0;
+        return measurement;
+    }
+
+    private boolean execute(char type, int[] values, BigDecimal paymentAmt, List<InputOrderItem> orderItems) {
+        switch (type) {
+            case 'N':
+                customerId = values[0];
+                warehouseId = values[1];
+                districtId = values[2];
+                return newOrder.executeTransaction(customerId, warehouseId, districtId, orderItems);
+            case 'P':
+                warehouseId = values[0];
+                districtId = values[1];
+                customerId = values[2];
+                return payment.execute(warehouseId, districtId, customerId, paymentAmt);
+            case 'D':
+                warehouseId = values[0];
+                DeliveryTransactionHandler.Result delivered = delivery.execute(warehouseId, values[1]);
+                if (delivered == DeliveryTransactionHandler.Result.PARTIAL) {
+                    transactionLatency.recordPartial(type);
+                }
+                return delivered != DeliveryTransactionHandler.Result.NOT_APPLIED;
+            case 'O':
+                orderStatus.executeTransaction(values[0], values[1], values[2]);
+                return true;
+            case 'S':
+                stockLevel.executeTransaction(values[0] , values[1] , values[2] , values[3]);
+                return true;
+            case 'I':
+                popularItem.executeTransaction(values[0] , values[1] , values[2]);
+                return true;
+            case 'T':
+                topBalance.execute();
+                return true;
+            case 'R':
+                relatedCustomer.executeTransaction(values[0] , values[1] , values[2]);
+                return true;
+            default:
+                Util.debugLog(logClassName, "Unknown transaction type " + type);
+                return true;
+        }
+    }
+
+    /**
+     * New Order, Payment and Delivery read, then write what they read changed, so running them
+     * twice applies them twice. The other transactions only read.
+     */
+    private static boolean isIdempotent(char type) {
+        return type != 'N' && type != 'P' && type != 'D';
+    }
+
+    private void logFailure(int transactionCount, char type, RetryPolicy.FailureClass failureClass, Exception failure, boolean retrying) {
+        String action = retrying ? "Retrying" : "Giving up on";
+        if (failure == null) {
+            Util.debugLog(logClassName, String.format("%s #%d of type %s. Reason: %s, not applied", action, transactionCount, type, failureClass));
+            return;
+        }
+        String cause = failure.getCause() != null ? failure.getCause().getMessage() : "";
+        Util.debugLog(logClassName, String.format("%s #%d of type %s. Reason %s %s: %s; caused by %s", action, transactionCount, type,
+                failureClass, failure.getClass().getSimpleName(), failure.getMessage(), cause));
+        if (failure instanceof AllNodesFailedException) {
+            Iterator<Entry<Node, List<Throwable>>> iterator = ((AllNodesFailedException) failure).getAllErrors().entrySet().iterator();
+            StringBuilder details = new StringBuilder();
+            while (iterator.hasNext()) {
+                Entry<Node, List<Throwable>> entry = iterator.next();
+                details.append(entry.getKey()).append(": ").append(entry.getValue());
+                for (Throwable t: entry.getValue()) {
+                    details.append(t.getMessage()).append(System.lineSeparator());
+                }
+                if (iterator.hasNext()) {
+                    details.append(", ");
+                }
+            }
+            Util.debugLog(logClassName, details.toString());
+        }
     }
 }
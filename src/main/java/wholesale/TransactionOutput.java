@@ -0,0 +1,80 @@
+package wholesale;
+
+import java.io.Closeable;
+
+/**
+ * Where the transactions of one client print their results. An instance belongs to one client
+ * thread. See {@link Config#OUTPUT_MODE} for the implementations.
+ *
+ * Callers hand over complete strings; a transaction printing several lines may print them one by
+ * one or at once.
+ */
+public interface TransactionOutput extends Closeable {
+
+    void print(String text);
+
+    void println(String line);
+
+    /**
+     * Waits until everything printed is written. The client prints nothing afterwards.
+     */
+    @Override
+    void close();
+
+    /**
+     * Creates the output of client {@code client}.
+     */
+    static TransactionOutput create(int client) {
+        switch (Config.OUTPUT_MODE) {
+            case "console":
+                return new Console();
+            case "file":
+                return new BufferedFileOutput(client, Config.OUTPUT_BUFFER_ENTRIES);
+            case "digest":
+                return new DigestOutput(client);
+            case "null":
+                return new Discard();
+            default:
+                throw new IllegalArgumentException("Unknown output mode: " + Config.OUTPUT_MODE);
+        }
+    }
+
+    /**
+     * Prints to {@code System.out}, shared by every client of the process.
+     */
+    final class Console implements TransactionOutput {
+
+        @Override
+        public void print(String text) {
+            System.out.print(text);
+        }
+
+        @Override
+        public void println(String line) {
+            System.out.println(line);
+        }
+
+        @Override
+        public void close() {
+            System.out.flush();
+        }
+    }
+
+    /**
+     * Drops everything, for runs measuring throughput only.
+     */
+    final class Discard implements TransactionOutput {
+
+        @Override
+        public void print(String text) {
+        }
+
+        @Override
+        public void println(String line) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package wholesale;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Source of the transactions replayed by one client.
+ */
+public interface TransactionReader extends Closeable {
+
+    /**
+     * Reads the next transaction into {@code record}.
+     *
+     * @return false once the file is exhausted
+     */
+    boolean next(TransactionRecord record) throws IOException;
+
+    /**
+     * Opens the compiled {@code .bin} file next to {@code textFilePath} when it exists, the text file otherwise.
+     */
+    static TransactionReader open(String textFilePath) throws IOException {
+        File binaryFile = new File(TransactionFileCompiler.binaryPathFor(textFilePath));
+        if (Config.TRANSACTION_BINARY && binaryFile.isFile()) {
+            return new BinaryTransactionReader(binaryFile.getPath());
+        }
+        return new TextTransactionReader(textFilePath);
+    }
+}
@@ -0,0 +1,77 @@
+package wholesale;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One parsed transaction of a client transaction file. Readers refill the same instance for
+ * every transaction, so replaying a file does not allocate per line.
+ *
+ * {@link #args} holds the integer parameters in the order of the text format, e.g.
+ * {@code C_ID, W_ID, D_ID} for N and {@code W_ID, D_ID, C_ID} for P. The payment amount and the
+ * order lines are kept separately.
+ */
+public final class TransactionRecord {
+
+    public static final int MAX_ARGS = 4;
+
+    char type;
+    final int[] args = new int[MAX_ARGS];
+    int argCount;
+
+    // Payment amount of a P transaction as unscaled value and scale.
+    long paymentUnscaled;
+    int paymentScale;
+
+    private final List<InputOrderItem> orderItems = new ArrayList<>();
+    private InputOrderItem[] orderItemPool = new InputOrderItem[0];
+
+    void reset(char type) {
+        this.type = type;
+        this.argCount = 0;
+        this.orderItems.clear();
+    }
+
+    void addArg(int value) {
+        args[argCount++] = value;
+    }
+
+    void addOrderItem(int itemId, int supplyWarehouseId, int quantity) {
+        int index = orderItems.size();
+        if (index == orderItemPool.length) {
+            InputOrderItem[] pool = new InputOrderItem[Math.max(16, index * 2)];
+            System.arraycopy(orderItemPool, 0, pool, 0, index);
+            orderItemPool = pool;
+        }
+        InputOrderItem item = orderItemPool[index];
+        if (item == null) {
+            item = orderItemPool[index] = new InputOrderItem(itemId, supplyWarehouseId, quantity);
+        } else {
+            item.item_ID = itemId;
+            item.supply_W_ID = supplyWarehouseId;
+            item.quantity = quantity;
+        }
+        orderItems.add(item);
+    }
+
+    public char getType() {
+        return type;
+    }
+
+    public int getArg(int index) {
+        return args[index];
+    }
+
+    public int getArgCount() {
+        return argCount;
+    }
+
+    public BigDecimal getPayment() {
+        return BigDecimal.valueOf(paymentUnscaled, paymentScale);
+    }
+
+    public List<InputOrderItem> getOrderItems() {
+        return orderItems;
+    }
+}
@@ -3,15 +3,15 @@ package wholesale;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.core.type.codec.TypeCodec;
 
 public final class Util {
 
-    public static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
     public static final boolean loggingEnabled = true;
 
     public static interface FileLineReader {
@@ -30,23 +30,52 @@ public final class Util {
         }
     }
 
-    public static void printTransactionOutput(Row row, String[] columns, HashMap<String, String> others) {
-        StringBuilder builder = new StringBuilder();
-            for (int i = 0; i < columns.length; i++) {
-                String column = columns[i];
-                if (i > 0) {
-                    builder.append(",");
-                }
-                builder.append(column).append(":");
-                if (others.containsKey(column)) {
-                    builder.append(others.get(column));
-                } else {    
-                    TypeCodec<Object> codec = row.codecRegistry().codecFor(row.getType(column));
-                    Object value = codec.decode(row.getBytesUnsafe(column), row.protocolVersion());
-                    builder.append(codec.format(value));
-                }
+    /**
+     * Formats a column the way {@link RowFormatter} prints it, as a CQL literal.
+     */
+    public static String formatColumn(Row row, String column) {
+        TypeCodec<Object> codec = row.codecRegistry().codecFor(row.getType(column));
+        Object value = codec.decode(row.getBytesUnsafe(column), row.protocolVersion());
+        return codec.format(value);
+    }
+
+    /**
+     * Waits for an asynchronous driver call and rethrows its failure unwrapped, so callers keep
+     * catching the same driver exceptions as with the blocking {@code session.execute}.
+     */
+    public static <T> T join(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            System.out.println(builder.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * Packs a district into a key of the maps holding per-district state.
+     */
+    public static long districtKey(int warehouseId, int districtId) {
+        return customerKey(warehouseId, districtId, 0);
+    }
+
+    /**
+     * Packs a customer into a key of the maps holding per-customer state.
+     */
+    public static long customerKey(int warehouseId, int districtId, int customerId) {
+        return ((long) warehouseId << 32) | ((long) districtId << 24) | customerId;
+    }
+
+    /**
+     * Returns {@code array}, or a copy at least twice as long when {@code index} is past its end.
+     */
+    public static <T> T[] ensureCapacity(T[] array, int index) {
+        if (index < array.length) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
     }
 
     public static void debugLog(String className, String message) {